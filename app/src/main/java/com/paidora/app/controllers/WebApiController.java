@@ -1,20 +1,52 @@
 package com.paidora.app.controllers;
 
 import com.paidora.app.models.DataResponse;
+import com.paidora.app.services.plugin.PluginsFactorySrv;
+import com.paidora.app.services.plugin.PluginsUpdateManager;
+import com.paidora.framework.http.client.metrics.ApiClientMetricsStats;
+import com.paidora.framework.http.client.metrics.InMemoryApiClientMetrics;
+import com.paidora.framework.modules.jcl.InMemoryJarStorageStats;
+import com.paidora.framework.modules.jcl.SharedEntryStore;
+import com.paidora.framework.modules.jcl.SharedEntryStoreStats;
+import com.paidora.framework.modules.repository.RepositoryRequestStats;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RestController;
 
+import java.util.Map;
+
 @Slf4j
 @RestController
 @RequiredArgsConstructor
 @RequestMapping(path = "/api/system", produces = "application/json")
 public class WebApiController {
+    private final PluginsFactorySrv pluginsFactorySrv;
+    private final PluginsUpdateManager pluginsUpdateManager;
 
     @RequestMapping(value = "/memory", method = RequestMethod.GET)
     public DataResponse<Long> getUsedMemory() {
         return DataResponse.success(Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory());
     }
+
+    @RequestMapping(value = "/plugins-storage", method = RequestMethod.GET)
+    public DataResponse<Map<String, InMemoryJarStorageStats>> getPluginsStorageStats() {
+        return DataResponse.success(pluginsFactorySrv.getModulesStorageStats());
+    }
+
+    @RequestMapping(value = "/plugins-dedup", method = RequestMethod.GET)
+    public DataResponse<SharedEntryStoreStats> getPluginsDedupStats() {
+        return DataResponse.success(SharedEntryStore.getInstance().getStats());
+    }
+
+    @RequestMapping(value = "/plugins-repository", method = RequestMethod.GET)
+    public DataResponse<RepositoryRequestStats> getPluginsRepositoryStats() {
+        return DataResponse.success(pluginsUpdateManager.getRepositoryRequestStats());
+    }
+
+    @RequestMapping(value = "/http-clients", method = RequestMethod.GET)
+    public DataResponse<ApiClientMetricsStats> getHttpClientsStats() {
+        return DataResponse.success(InMemoryApiClientMetrics.getInstance().getStats());
+    }
 }
@@ -0,0 +1,80 @@
+package com.paidora.framework.http.client;
+
+import com.paidora.framework.exceptions.UnexpectedBehaviourException;
+import com.paidora.framework.http.client.core.ApiClientBodyType;
+import com.paidora.framework.http.client.core.ApiClientHedgingPolicy;
+import com.paidora.framework.http.client.core.ApiClientHttpRequest;
+import com.sun.net.httpserver.HttpServer;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Хвост задержек GET к локальному серверу, который отвечает за 2 мс, а каждый двадцатый запрос держит 100 мс.
+ * Распределение времени (p0.99 и выше) сравнивается без хеджирования и с ним.
+ * Без TCP_NODELAY на сервере ответы ждут отложенного ACK и все запросы медленные.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(value = 1, jvmArgsAppend = "-Dsun.net.httpserver.nodelay=true")
+public class HedgingBenchmark {
+    private static final long FAST_MILLIS = 2;
+    private static final long SLOW_MILLIS = 100;
+    private static final int SLOW_EVERY = 20;
+
+    @Param({"false", "true"})
+    public boolean hedging;
+
+    private HttpServer server;
+    private ExecutorService serverExecutor;
+    private ApiClientBase client;
+    private String url;
+
+    @Setup
+    public void setUp() throws IOException {
+        var requests = new AtomicLong();
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        serverExecutor = Executors.newCachedThreadPool();
+        server.setExecutor(serverExecutor);
+        server.createContext("/", exchange -> {
+            try {
+                Thread.sleep(requests.incrementAndGet() % SLOW_EVERY == 0 ? SLOW_MILLIS : FAST_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            var body = "ok".getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+        server.start();
+        url = "http://127.0.0.1:" + server.getAddress().getPort() + "/status";
+        client = new ApiClientBase(url, 10L) {
+        };
+    }
+
+    @TearDown
+    public void tearDown() {
+        client.close();
+        server.stop(0);
+        serverExecutor.shutdownNow();
+    }
+
+    @Benchmark
+    public String get() throws UnexpectedBehaviourException {
+        var request = ApiClientHttpRequest.<Void, String>get(url, ApiClientBodyType.TEXT, String.class);
+        if (hedging) {
+            request.setHedgingPolicy(ApiClientHedgingPolicy.builder().build());
+        }
+        return client.makeApiRequest(request);
+    }
+}
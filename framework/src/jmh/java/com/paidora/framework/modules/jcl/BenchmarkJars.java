@@ -0,0 +1,63 @@
+package com.paidora.framework.modules.jcl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+/**
+ * Синтетические джарники для бенчмарков: пустые классы без методов из {@link TestJars#emptyClass}, которые можно определить без зависимостей
+ */
+final class BenchmarkJars {
+    static final String PACKAGE_PREFIX = "bench/p";
+
+    private BenchmarkJars() {
+    }
+
+    /**
+     * @return имя класса в виде com.x.Y для i-го класса джарника
+     */
+    static String className(int i, int packages) {
+        return (PACKAGE_PREFIX + (i % packages) + "/C" + i).replace('/', '.');
+    }
+
+    static List<String> classNames(int classes, int packages) {
+        var result = new ArrayList<String>(classes);
+        for (var i = 0; i < classes; i++) {
+            result.add(className(i, packages));
+        }
+        return result;
+    }
+
+    /**
+     * Джарник с записями директорий, classes классами, разложенными по packages пакетам, и resources ресурсами в тех же пакетах
+     */
+    static byte[] createJar(int classes, int packages, int resources) {
+        var out = new ByteArrayOutputStream();
+        try (var jar = new JarOutputStream(out)) {
+            jar.putNextEntry(new JarEntry(PACKAGE_PREFIX.substring(0, PACKAGE_PREFIX.indexOf('/') + 1)));
+            jar.closeEntry();
+            for (var i = 0; i < packages; i++) {
+                jar.putNextEntry(new JarEntry(PACKAGE_PREFIX + i + "/"));
+                jar.closeEntry();
+            }
+            for (var i = 0; i < classes; i++) {
+                var name = className(i, packages).replace('.', '/');
+                jar.putNextEntry(new JarEntry(name + ".class"));
+                jar.write(TestJars.emptyClass(name, "java/lang/Object"));
+                jar.closeEntry();
+            }
+            for (var i = 0; i < resources; i++) {
+                jar.putNextEntry(new JarEntry(PACKAGE_PREFIX + (i % packages) + "/r" + i + ".properties"));
+                jar.write(("key=" + i + "\n").getBytes());
+                jar.closeEntry();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,101 @@
+package com.paidora.framework.modules.jcl;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Загрузка через плагинный класслоадер классов родителя и отсутствующих классов:
+ * с индексом пакетов и кешем отсутствующих (current) и прежним путем, где сначала всегда вызывается findClass (legacy)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ClassLoadingBenchmark {
+    private static final String[] PARENT_CLASSES = {
+            "java.lang.String",
+            "java.util.HashMap",
+            "java.util.concurrent.ConcurrentHashMap",
+            "org.springframework.context.ApplicationContext",
+            "org.springframework.beans.factory.BeanFactory",
+            "com.fasterxml.jackson.databind.ObjectMapper",
+            "com.fasterxml.jackson.core.JsonParser",
+            "org.apache.hc.client5.http.classic.HttpClient"
+    };
+    private static final String[] MISSING_CLASSES = {
+            "bench.p0.Missing",
+            "org.springframework.context.Missing",
+            "com.fasterxml.jackson.databind.MissingDeserializer",
+            "java.lang.Missing"
+    };
+
+    @Param({"current", "legacy"})
+    public String loader;
+
+    private InMemoryJarClassLoader classLoader;
+    private int next;
+
+    @Setup
+    public void setUp() throws IOException {
+        var jar = BenchmarkJars.createJar(1000, 20, 0);
+        var parent = getClass().getClassLoader();
+        var options = InMemoryJarStorageOptions.of(InMemoryJarStorageMode.EAGER);
+        classLoader = "legacy".equals(loader)
+                ? new LegacyClassLoader(jar, parent, options)
+                : new InMemoryJarClassLoader(jar, parent, options);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        classLoader.close();
+    }
+
+    @Benchmark
+    public Class<?> parentClass() throws ClassNotFoundException {
+        return classLoader.loadClass(PARENT_CLASSES[next++ & 7]);
+    }
+
+    @Benchmark
+    public Object missingClass() {
+        try {
+            return classLoader.loadClass(MISSING_CLASSES[next++ & 3]);
+        } catch (ClassNotFoundException e) {
+            return e;
+        }
+    }
+
+    /**
+     * Загрузка до индекса пакетов: свой джарник всегда проверяется первым, промах стоит ClassNotFoundException
+     */
+    private static class LegacyClassLoader extends InMemoryJarClassLoader {
+        static {
+            ClassLoader.registerAsParallelCapable();
+        }
+
+        LegacyClassLoader(byte[] jarBytes, ClassLoader parent, InMemoryJarStorageOptions options) throws IOException {
+            super(jarBytes, parent, options);
+        }
+
+        @Override
+        protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            synchronized (getClassLoadingLock(name)) {
+                var loadedClass = findLoadedClass(name);
+                if (loadedClass == null) {
+                    try {
+                        loadedClass = findClass(name);
+                    } catch (ClassNotFoundException e) {
+                        loadedClass = getParent().loadClass(name);
+                    }
+                }
+                if (resolve) {
+                    resolveClass(loadedClass);
+                }
+                return loadedClass;
+            }
+        }
+    }
+}
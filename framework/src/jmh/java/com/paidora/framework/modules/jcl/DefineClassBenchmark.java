@@ -0,0 +1,94 @@
+package com.paidora.framework.modules.jcl;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Определение всех классов свежего класслоадера: из буфера хранилища (buffer)
+ * и прежним путем через поток ресурса и промежуточный массив (stream).
+ * Аллокации в куче видны с -prof gc.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DefineClassBenchmark {
+    private static final int CLASSES = 500;
+    private static final int PACKAGES = 10;
+
+    @Param({"EAGER", "LAZY", "COMPRESSED"})
+    public InMemoryJarStorageMode storageMode;
+
+    @Param({"false", "true"})
+    public boolean offHeap;
+
+    @Param({"buffer", "stream"})
+    public String path;
+
+    private byte[] jar;
+    private List<String> classNames;
+    private InMemoryJarClassLoader classLoader;
+
+    @Setup(Level.Trial)
+    public void setUpJar() {
+        jar = BenchmarkJars.createJar(CLASSES, PACKAGES, 0);
+        classNames = BenchmarkJars.classNames(CLASSES, PACKAGES);
+    }
+
+    @Setup(Level.Invocation)
+    public void setUpClassLoader() throws IOException {
+        var options = InMemoryJarStorageOptions.builder()
+                .storageMode(storageMode)
+                .offHeap(offHeap)
+                .build();
+        var parent = getClass().getClassLoader();
+        classLoader = "stream".equals(path)
+                ? new StreamClassLoader(jar, parent, options)
+                : new InMemoryJarClassLoader(jar, parent, options);
+    }
+
+    @TearDown(Level.Invocation)
+    public void tearDownClassLoader() throws IOException {
+        classLoader.close();
+    }
+
+    @Benchmark
+    public void defineAll(Blackhole blackhole) throws ClassNotFoundException {
+        for (var name : classNames) {
+            blackhole.consume(classLoader.loadClass(name));
+        }
+    }
+
+    /**
+     * Байткод читается через URL соединение записи в массив и только потом определяется
+     */
+    private static class StreamClassLoader extends InMemoryJarClassLoader {
+        static {
+            ClassLoader.registerAsParallelCapable();
+        }
+
+        StreamClassLoader(byte[] jarBytes, ClassLoader parent, InMemoryJarStorageOptions options) throws IOException {
+            super(jarBytes, parent, options);
+        }
+
+        @Override
+        protected Class<?> findClass(String name) throws ClassNotFoundException {
+            var url = findResource(name.replace('.', '/') + ".class");
+            if (url == null) {
+                throw new ClassNotFoundException(name);
+            }
+            try (var is = url.openStream()) {
+                var bytes = is.readAllBytes();
+                return defineClass(name, bytes, 0, bytes.length);
+            } catch (IOException e) {
+                throw new ClassNotFoundException(name, e);
+            }
+        }
+    }
+}
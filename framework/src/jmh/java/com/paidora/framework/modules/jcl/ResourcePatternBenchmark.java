@@ -0,0 +1,94 @@
+package com.paidora.framework.modules.jcl;
+
+import org.openjdk.jmh.annotations.*;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.LinkedHashSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Поиск ресурсов по шаблону в джарнике на 20 тысяч записей: по отсортированному индексу с отсечением директорий (indexed)
+ * и прежним перебором всех записей джарника (legacy)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResourcePatternBenchmark {
+    private static final int CLASSES = 10000;
+    private static final int RESOURCES = 10000;
+    private static final int PACKAGES = 100;
+
+    @Param({
+            "classpath*:bench/p42/*.class",
+            "classpath*:bench/p4*/**/*.class",
+            "classpath*:bench/**/r7*.properties"
+    })
+    public String pattern;
+
+    @Param({"indexed", "legacy"})
+    public String resolver;
+
+    private InMemoryJarClassLoader classLoader;
+    private PathMatchingResourcePatternResolver patternResolver;
+
+    @Setup
+    public void setUp() throws IOException {
+        var jar = BenchmarkJars.createJar(CLASSES, PACKAGES, RESOURCES);
+        classLoader = new InMemoryJarClassLoader(jar, getClass().getClassLoader(), InMemoryJarStorageOptions.of(InMemoryJarStorageMode.LAZY));
+        patternResolver = "legacy".equals(resolver)
+                ? new LegacyResolver(classLoader)
+                : new InMemoryPathMatchingResourcePatternResolver(classLoader);
+        if (patternResolver.getResources(pattern).length == 0) {
+            throw new IllegalStateException("Pattern " + pattern + " matches nothing");
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        classLoader.close();
+    }
+
+    @Benchmark
+    public Resource[] getResources() throws IOException {
+        return patternResolver.getResources(pattern);
+    }
+
+    /**
+     * Поиск до индекса: каждая запись джарника проверяется на префикс корня и сопоставляется с шаблоном
+     */
+    private static class LegacyResolver extends PathMatchingResourcePatternResolver {
+        LegacyResolver(ClassLoader classLoader) {
+            super(classLoader);
+        }
+
+        @Override
+        protected Resource[] findPathMatchingResources(String locationPattern) throws IOException {
+            var rootDirPath = determineRootDir(locationPattern);
+            var subPattern = locationPattern.substring(rootDirPath.length());
+            var result = new LinkedHashSet<Resource>(16);
+            for (var rootDirResource : getResources(rootDirPath)) {
+                URL rootDirUrl = rootDirResource.getURL();
+                if (!(rootDirUrl.openConnection() instanceof InMemoryJarClassLoader.InMemoryJarURLConnection)) {
+                    continue;
+                }
+                var jarCon = (InMemoryJarClassLoader.InMemoryJarURLConnection) rootDirUrl.openConnection();
+                var rootEntryPath = jarCon.getEntry();
+                for (var entryPath : jarCon.getAllEntries()) {
+                    if (entryPath.startsWith(rootEntryPath)) {
+                        var relativePath = entryPath.substring(rootEntryPath.length());
+                        if (getPathMatcher().match(subPattern, relativePath)) {
+                            result.add(rootDirResource.createRelative(relativePath));
+                        }
+                    }
+                }
+            }
+            return result.toArray(new Resource[0]);
+        }
+    }
+}
@@ -1,61 +1,168 @@
 package com.paidora.framework.http.client;
 
-
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
 import com.fasterxml.jackson.dataformat.xml.XmlMapper;
 import com.paidora.framework.exceptions.UnexpectedBehaviourException;
+import com.paidora.framework.http.client.cache.ApiRequestCoalescer;
+import com.paidora.framework.http.client.cache.ApiResponseCacheLookup;
+import com.paidora.framework.http.client.cache.IApiResponseCache;
 import com.paidora.framework.http.client.core.ApiClientBodyType;
+import com.paidora.framework.http.client.core.ApiClientCircuitBreakerOptions;
+import com.paidora.framework.http.client.core.ApiClientHedgingPolicy;
 import com.paidora.framework.http.client.core.ApiClientHttpRequest;
+import com.paidora.framework.http.client.core.ApiClientRetryPolicy;
+import com.paidora.framework.http.client.core.JacksonHttpEntity;
+import com.paidora.framework.http.client.metrics.ApiRequestMetrics;
+import com.paidora.framework.http.client.metrics.IApiClientMetrics;
+import com.paidora.framework.http.client.metrics.InMemoryApiClientMetrics;
+import com.paidora.framework.http.client.resilience.ApiClientCircuitBreaker;
+import com.paidora.framework.http.client.resilience.ApiClientHedgedRequest;
+import com.paidora.framework.http.client.resilience.ApiClientResilience;
+import com.paidora.framework.http.client.tracing.ApiClientTracer;
+import com.paidora.framework.http.client.tracing.ApiClientTracingOptions;
+import com.paidora.framework.http.client.tracing.ApiRequestTrace;
+import com.paidora.framework.ssl.SSLContextCache;
 import com.paidora.framework.ssl.SSLUtil;
 import com.paidora.framework.utils.uri.Uri;
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
 import lombok.Getter;
 import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.hc.client5.http.classic.methods.*;
-import org.apache.hc.client5.http.config.ConnectionConfig;
-import org.apache.hc.client5.http.config.RequestConfig;
-import org.apache.hc.client5.http.impl.DefaultRedirectStrategy;
+import org.apache.hc.client5.http.async.methods.SimpleHttpRequest;
+import org.apache.hc.client5.http.async.methods.SimpleHttpResponse;
+import org.apache.hc.client5.http.classic.methods.HttpUriRequestBase;
+import org.apache.hc.client5.http.impl.async.CloseableHttpAsyncClient;
 import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
-import org.apache.hc.client5.http.impl.classic.HttpClients;
 import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
-import org.apache.hc.client5.http.socket.ConnectionSocketFactory;
-import org.apache.hc.client5.http.socket.PlainConnectionSocketFactory;
-import org.apache.hc.client5.http.ssl.NoopHostnameVerifier;
-import org.apache.hc.client5.http.ssl.SSLConnectionSocketFactory;
-import org.apache.hc.client5.http.ssl.TrustAllStrategy;
+import org.apache.hc.core5.concurrent.FutureCallback;
 import org.apache.hc.core5.http.ClassicHttpRequest;
 import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.HttpEntity;
 import org.apache.hc.core5.http.HttpHeaders;
-import org.apache.hc.core5.http.config.RegistryBuilder;
-import org.apache.hc.core5.http.io.SocketConfig;
+import org.apache.hc.core5.http.HttpRequest;
+import org.apache.hc.core5.http.HttpResponse;
+import org.apache.hc.core5.http.HttpStatus;
+import org.apache.hc.core5.http.ParseException;
 import org.apache.hc.core5.http.io.entity.EntityUtils;
 import org.apache.hc.core5.http.io.entity.StringEntity;
-import org.apache.hc.core5.ssl.SSLContextBuilder;
+import org.apache.hc.core5.io.CloseMode;
 import org.apache.hc.core5.util.TimeValue;
-import org.apache.hc.core5.util.Timeout;
 
 import javax.net.ssl.SSLContext;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
 import java.io.IOException;
-import java.security.KeyManagementException;
-import java.security.KeyStoreException;
-import java.security.NoSuchAlgorithmException;
-import java.util.HashMap;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.lang.ref.Cleaner;
+import java.net.URI;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.function.LongConsumer;
 
+/**
+ * Если общий connManager не передан, клиенты с пулом соединений переиспользуются между запросами:
+ * по одному на сочетание таймаута, отпечатка клиентского сертификата и политики редиректов, но не больше
+ * {@link #MAX_POOLED_HTTP_CLIENTS}. Простаивающие соединения закрываются через {@link #IDLE_CONNECTION_TIMEOUT},
+ * сами клиенты - в {@link #close()}. Клиент нужно закрыть, когда он больше не нужен: если его соберет GC без закрытия,
+ * кешированные клиенты закроет {@link Cleaner} с предупреждением в логе. SSL контексты для клиентских сертификатов берутся из общего {@link SSLContextCache},
+ * кешированный клиент держит свой контекст до закрытия.
+ * Асинхронные запросы {@link #makeApiRequestAsync} идут через отдельный кеш асинхронных клиентов с теми же ключами.
+ * Длительности запросов, сериализации и разбора, ошибки и состояние пулов кешированных клиентов пишутся в {@link #getMetrics()}.
+ * Общий connManager в метриках не регистрируется, это дело его владельца.
+ * Запросы и ответы с телами пишутся не в лог клиента, а через {@link #getTracer()} с выборкой, обрезкой и маскированием.
+ * Таймаут клиента в секундах ограничивает соединение, ожидание соединения из пула и ответ, без него - {@link #DEFAULT_TIMEOUT_SECONDS}.
+ * Повторы {@link ApiClientRetryPolicy} и предохранители маршрутов {@link ApiClientCircuitBreakerOptions} включаются
+ * для клиента или отдельного запроса, по умолчанию выключены. Разомкнутый предохранитель сразу отклоняет запросы
+ * с {@link #CIRCUIT_OPEN}, не занимая поток на время таймаута.
+ * Идемпотентные запросы с {@link ApiClientHedgingPolicy} хеджируются: медленный запрос дублируется, побеждает первый ответ.
+ * С {@link #coalesceGetRequests} одинаковые одновременные GET объединяются в один обмен, и все ждущие получают
+ * один и тот же разобранный объект ответа, менять его нельзя.
+ * С {@link #responseCache} разобранные ответы GET 200 хранятся по Cache-Control и Expires, устаревшие проверяются
+ * у сервера по ETag и Last-Modified, и на 304 отдается сохраненный объект. Свежий ответ из кеша возвращается
+ * без запроса, метрик и трассировки.
+ */
 @Getter
 @Setter
 @Slf4j
-public abstract class ApiClientBase {
+public abstract class ApiClientBase implements Closeable {
 
     protected static final String API_ERROR = "api_error";
+    protected static final String CIRCUIT_OPEN = ApiClientResilience.CIRCUIT_OPEN;
+    protected static final long DEFAULT_TIMEOUT_SECONDS = 85;
+    protected static final int MAX_CIRCUIT_BREAKERS = 1000;
+    protected static final int MAX_HEDGING_ROUTES = 1000;
+    protected static final String HEDGE_SENT = ApiClientHedgedRequest.HEDGE_SENT;
+    protected static final String HEDGE_WON = ApiClientHedgedRequest.HEDGE_WON;
+    protected static final TimeValue IDLE_CONNECTION_TIMEOUT = TimeValue.ofSeconds(30);
+    protected static final int MAX_POOLED_HTTP_CLIENTS = 64;
+    private static final SSLContextCache SSL_CONTEXT_CACHE = new SSLContextCache();
+    private static volatile IApiClientMetrics defaultMetrics = InMemoryApiClientMetrics.getInstance();
+    private static volatile ApiClientTracer defaultTracer = new ApiClientTracer(ApiClientTracingOptions.builder().build());
     private final Long responseTimeout;
     private final String url;
     private final PoolingHttpClientConnectionManager connManager;
     private final ObjectMapper objectMapper = new ObjectMapper();
     private final XmlMapper xmlMapper = new XmlMapper();
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private final Map<Class<?>, ObjectReader> jsonReaders = new ConcurrentHashMap<>();
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private final Map<Class<?>, ObjectReader> xmlReaders = new ConcurrentHashMap<>();
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private final Map<Class<?>, ObjectWriter> jsonWriters = new ConcurrentHashMap<>();
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private final Map<Class<?>, ObjectWriter> xmlWriters = new ConcurrentHashMap<>();
     private boolean isBase64SSLContext;
+    /**
+     * Метрики этого клиента, null - общие {@link #setDefaultMetrics}
+     */
+    private IApiClientMetrics metrics;
+    /**
+     * Трассировка этого клиента, null - общая {@link #setDefaultTracer}
+     */
+    private ApiClientTracer tracer;
+    /**
+     * Повторы для запросов без своей политики, null - без повторов
+     */
+    private ApiClientRetryPolicy retryPolicy;
+    /**
+     * Настройки предохранителей маршрутов для запросов без своих, null - без предохранителей
+     */
+    private ApiClientCircuitBreakerOptions circuitBreakerOptions;
+    /**
+     * Объединять одинаковые одновременные GET в один обмен, если запрос не задает {@link ApiClientHttpRequest#setCoalescing} сам
+     */
+    private boolean coalesceGetRequests;
+    /**
+     * Кеш ответов GET, null - без кеша
+     */
+    private IApiResponseCache responseCache;
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private final ApiClientResilience resilience = new ApiClientResilience(MAX_CIRCUIT_BREAKERS, MAX_HEDGING_ROUTES);
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private final ApiRequestCoalescer requestCoalescer = new ApiRequestCoalescer();
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private final ApiHttpClients httpClients;
 
     public ApiClientBase(String url, Long responseTimeoutSeconds) {
         this(url, null, responseTimeoutSeconds);
@@ -65,201 +172,583 @@ public abstract class ApiClientBase {
         this.url = url;
         this.responseTimeout = responseTimeoutSeconds;
         this.connManager = connManager;
+        this.httpClients = new ApiHttpClients(this, connManager);
+    }
+
+    /**
+     * Метрики для клиентов без своих, по умолчанию {@link InMemoryApiClientMetrics#getInstance()}
+     */
+    public static void setDefaultMetrics(IApiClientMetrics metrics) {
+        defaultMetrics = metrics;
+    }
+
+    public IApiClientMetrics getMetrics() {
+        return metrics != null ? metrics : defaultMetrics;
+    }
+
+    /**
+     * Трассировка для клиентов без своей, по умолчанию с {@link ApiClientTracingOptions} по умолчанию
+     */
+    public static void setDefaultTracer(ApiClientTracer tracer) {
+        defaultTracer = tracer;
+    }
+
+    public ApiClientTracer getTracer() {
+        return tracer != null ? tracer : defaultTracer;
     }
 
     public <TRequest, TResponse> TResponse makeApiRequest(ApiClientHttpRequest<TRequest, TResponse> request) throws UnexpectedBehaviourException {
-        SSLContext sslContext;
+        var cacheLookup = ApiResponseCacheLookup.lookup(responseCache, request);
+        if (cacheLookup != null && cacheLookup.isFresh()) {
+            return cacheLookup.getResponse();
+        }
+        var coalescedRequest = requestCoalescer.join(request, coalesceGetRequests);
+        if (coalescedRequest == null) {
+            return makeUncoalescedApiRequest(request, cacheLookup);
+        }
+        if (!coalescedRequest.isLeader()) {
+            new ApiRequestMetrics(getMetrics(), request).coalesced();
+            return awaitApiRequest(coalescedRequest.getResponse());
+        }
+        try {
+            var response = makeUncoalescedApiRequest(request, cacheLookup);
+            coalescedRequest.complete(response, null);
+            return response;
+        } catch (Throwable e) {
+            // и на Error, иначе ждущие повиснут, а ключ останется занятым
+            coalescedRequest.complete(null, e);
+            throw e;
+        }
+    }
+
+    /**
+     * Каждая попытка пишется в метрики и трассировку как отдельный запрос, между попытками поток спит
+     */
+    private <TRequest, TResponse> TResponse makeUncoalescedApiRequest(ApiClientHttpRequest<TRequest, TResponse> request,
+                                                                      ApiResponseCacheLookup cacheLookup) throws UnexpectedBehaviourException {
+        if (ApiClientResilience.getHedgingPolicy(request) != null) {
+            var result = new CompletableFuture<TResponse>();
+            executeApiRequestAsync(request, cacheLookup, 1, result);
+            return awaitApiRequest(result);
+        }
+        for (var attempt = 1; ; attempt++) {
+            var requestMetrics = new ApiRequestMetrics(getMetrics(), request);
+            var circuitBreaker = resilience.acquireCircuitBreaker(request, circuitBreakerOptions, requestMetrics);
+            var trace = getTracer().start(request);
+            try {
+                var response = executeApiRequest(request, cacheLookup, requestMetrics, trace);
+                requestMetrics.finish(null);
+                trace.finish(null);
+                resilience.onAttemptCompleted(request, retryPolicy, attempt, circuitBreaker, requestMetrics, null);
+                return response;
+            } catch (UnexpectedBehaviourException e) {
+                requestMetrics.finish(e);
+                trace.finish(e);
+                var retryDelay = resilience.onAttemptCompleted(request, retryPolicy, attempt, circuitBreaker, requestMetrics, e);
+                if (retryDelay < 0) {
+                    throw e;
+                }
+                try {
+                    Thread.sleep(retryDelay);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+            } catch (RuntimeException e) {
+                requestMetrics.finish(e);
+                trace.finish(e);
+                if (circuitBreaker != null) {
+                    circuitBreaker.onResult(true);
+                }
+                throw e;
+            }
+        }
+    }
+
+    private <TResponse> TResponse awaitApiRequest(CompletableFuture<TResponse> future) throws UnexpectedBehaviourException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof UnexpectedBehaviourException) {
+                throw (UnexpectedBehaviourException) e.getCause();
+            } else if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new UnexpectedBehaviourException(e.getCause().getMessage(), e.getCause());
+        } catch (InterruptedException e) {
+            future.cancel(false);
+            Thread.currentThread().interrupt();
+            throw new UnexpectedBehaviourException("interrupted", e);
+        }
+    }
+
+    private <TRequest, TResponse> TResponse executeApiRequest(ApiClientHttpRequest<TRequest, TResponse> request,
+                                                              ApiResponseCacheLookup cacheLookup,
+                                                              ApiRequestMetrics requestMetrics,
+                                                              ApiRequestTrace trace) throws UnexpectedBehaviourException {
+        var ssl = getRequestSSL(request);
+        CloseableHttpClient httpClient;
+        try {
+            httpClient = connManager == null
+                    ? getPooledHttpClient(responseTimeout, ssl.sslContext, ssl.fingerprint, request.isFollowHttpRedirect())
+                    : null;
+            // если лимит клиентов в кеше исчерпан, работаем как раньше через отдельный клиент
+            var pooled = httpClient != null;
+            if (!pooled) {
+                httpClient = getHttpClient(responseTimeout, ssl.sslContext, request.isFollowHttpRedirect());
+            }
+
+            var httpRequest = prepareHttpRequest(request, CLASSIC_REQUEST_FACTORY, cacheLookup, requestMetrics, trace);
+            requestMetrics.started();
+            try (var httpResponse = httpClient.execute(httpRequest)) {
+                return processResponse(request, httpResponse, new ClassicResponseBody(httpResponse.getEntity()), cacheLookup, requestMetrics, trace);
+            } catch (UnexpectedBehaviourException e) {
+                throw e;
+            } catch (Exception e) {
+                log.info("Error sending request", e);
+                requestMetrics.failed(e);
+                throw new UnexpectedBehaviourException(e.getMessage(), e);
+            } finally {
+                if (connManager == null && !pooled) {
+                    httpClient.close();
+                }
+            }
+        } catch (IOException e) {
+            log.info("Error sending request", e);
+            requestMetrics.failed(e);
+            throw new UnexpectedBehaviourException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Неблокирующий вариант {@link #makeApiRequest}: поток на время запроса не занимается, с сервером, который это поддерживает,
+     * по TLS согласуется HTTP/2 и запросы мультиплексируются в одном соединении.
+     * Тело ответа целиком собирается в памяти, в том числе для STREAM. Разбор ответа и процессоры запроса вызываются
+     * в потоке ввода-вывода клиента, блокировать в них нельзя. Общий connManager используется только блокирующими запросами.
+     * Повторы запускаются по таймеру без занятия потока, отмена future прекращает и текущую попытку, и повторы.
+     *
+     * @return future, завершающийся ответом или {@link UnexpectedBehaviourException}
+     */
+    public <TRequest, TResponse> CompletableFuture<TResponse> makeApiRequestAsync(ApiClientHttpRequest<TRequest, TResponse> request) {
+        ApiResponseCacheLookup cacheLookup;
+        try {
+            cacheLookup = ApiResponseCacheLookup.lookup(responseCache, request);
+        } catch (UnexpectedBehaviourException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        if (cacheLookup != null && cacheLookup.isFresh()) {
+            return CompletableFuture.completedFuture(cacheLookup.getResponse());
+        }
+        var coalescedRequest = requestCoalescer.join(request, coalesceGetRequests);
+        if (coalescedRequest == null) {
+            var result = new CompletableFuture<TResponse>();
+            executeApiRequestAsync(request, cacheLookup, 1, result);
+            return result;
+        }
+        if (!coalescedRequest.isLeader()) {
+            new ApiRequestMetrics(getMetrics(), request).coalesced();
+            return coalescedRequest.getResponse();
+        }
+        // общий запрос не отменяется ни одним из ждущих, его ограничивает таймаут
+        var result = new CompletableFuture<TResponse>();
+        result.whenComplete(coalescedRequest::complete);
+        try {
+            executeApiRequestAsync(request, cacheLookup, 1, result);
+        } catch (Throwable e) {
+            result.completeExceptionally(e);
+            throw e;
+        }
+        return coalescedRequest.getResponse();
+    }
+
+    private <TRequest, TResponse> void executeApiRequestAsync(ApiClientHttpRequest<TRequest, TResponse> request,
+                                                              ApiResponseCacheLookup cacheLookup,
+                                                              int attempt,
+                                                              CompletableFuture<TResponse> result) {
+        var requestMetrics = new ApiRequestMetrics(getMetrics(), request);
+        ApiClientCircuitBreaker circuitBreaker;
+        try {
+            circuitBreaker = resilience.acquireCircuitBreaker(request, circuitBreakerOptions, requestMetrics);
+        } catch (UnexpectedBehaviourException e) {
+            result.completeExceptionally(e);
+            return;
+        }
+        var hedgingPolicy = ApiClientResilience.getHedgingPolicy(request);
+        var hedgingState = hedgingPolicy != null ? resilience.getHedgingState(requestMetrics) : null;
+        var hedgedRequest = hedgingState != null
+                ? new ApiClientHedgedRequest<>(hedgingPolicy, hedgingState, requestMetrics,
+                () -> new ApiRequestMetrics(getMetrics(), request),
+                hedgeMetrics -> sendApiRequestAsync(request, cacheLookup, hedgeMetrics))
+                : null;
+        var attemptResult = hedgedRequest != null ? hedgedRequest.send() : sendApiRequestAsync(request, cacheLookup, requestMetrics);
+        result.whenComplete((response, e) -> {
+            if (result.isCancelled()) {
+                attemptResult.cancel(false);
+            }
+        });
+        attemptResult.whenComplete((response, e) -> {
+            var attemptMetrics = hedgedRequest != null ? hedgedRequest.getDecidingMetrics() : requestMetrics;
+            var retryDelay = resilience.onAttemptCompleted(request, retryPolicy, attempt, circuitBreaker, attemptMetrics, e);
+            if (e == null) {
+                result.complete(response);
+            } else if (retryDelay < 0) {
+                result.completeExceptionally(e instanceof CompletionException && e.getCause() != null ? e.getCause() : e);
+            } else {
+                CompletableFuture.delayedExecutor(retryDelay, TimeUnit.MILLISECONDS).execute(() -> {
+                    if (!result.isDone()) {
+                        executeApiRequestAsync(request, cacheLookup, attempt + 1, result);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Одна попытка асинхронного запроса со своими метриками и трассировкой
+     */
+    private <TRequest, TResponse> CompletableFuture<TResponse> sendApiRequestAsync(ApiClientHttpRequest<TRequest, TResponse> request,
+                                                                                   ApiResponseCacheLookup cacheLookup,
+                                                                                   ApiRequestMetrics requestMetrics) {
+        var result = new CompletableFuture<TResponse>();
+        var trace = getTracer().start(request);
+        result.whenComplete((response, e) -> {
+            if (!requestMetrics.isSuperseded()) {
+                requestMetrics.finish(e);
+                trace.finish(e);
+            }
+        });
+        try {
+            var ssl = getRequestSSL(request);
+            var httpClient = getPooledHttpAsyncClient(responseTimeout, ssl.sslContext, ssl.fingerprint, request.isFollowHttpRedirect());
+            var oneOffClient = httpClient == null
+                    ? createHttpAsyncClient(responseTimeout, ssl.sslContext, request.isFollowHttpRedirect())
+                    : null;
+            if (oneOffClient != null) {
+                httpClient = oneOffClient;
+                // закрывать клиент из его же потока ввода-вывода нельзя
+                result.whenCompleteAsync((response, e) -> oneOffClient.close(CloseMode.GRACEFUL));
+            }
+
+            var httpRequest = prepareHttpRequest(request, ASYNC_REQUEST_FACTORY, cacheLookup, requestMetrics, trace);
+            requestMetrics.started();
+            var httpFuture = httpClient.execute(httpRequest, new FutureCallback<>() {
+                @Override
+                public void completed(SimpleHttpResponse httpResponse) {
+                    try {
+                        result.complete(processResponse(request, httpResponse, new SimpleResponseBody(httpResponse), cacheLookup, requestMetrics, trace));
+                    } catch (UnexpectedBehaviourException e) {
+                        result.completeExceptionally(e);
+                    } catch (Exception e) {
+                        log.info("Error sending request", e);
+                        requestMetrics.failed(e);
+                        result.completeExceptionally(new UnexpectedBehaviourException(e.getMessage(), e));
+                    }
+                }
+
+                @Override
+                public void failed(Exception e) {
+                    log.info("Error sending request", e);
+                    requestMetrics.failed(e);
+                    result.completeExceptionally(new UnexpectedBehaviourException(e.getMessage(), e));
+                }
+
+                @Override
+                public void cancelled() {
+                    result.cancel(false);
+                }
+            });
+            result.whenComplete((response, e) -> {
+                if (result.isCancelled()) {
+                    httpFuture.cancel(true);
+                }
+            });
+        } catch (UnexpectedBehaviourException e) {
+            result.completeExceptionally(e);
+        } catch (IOException e) {
+            log.info("Error sending request", e);
+            requestMetrics.failed(e);
+            result.completeExceptionally(new UnexpectedBehaviourException(e.getMessage(), e));
+        } catch (RuntimeException e) {
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+    /**
+     * Читатели и писатели кешируются при первом использовании класса, настраивать мапперы нужно до первого запроса
+     */
+    protected ObjectReader getJsonReader(Class<?> type) {
+        return jsonReaders.computeIfAbsent(type, t -> objectMapper.readerFor(t).with(DeserializationFeature.ACCEPT_EMPTY_ARRAY_AS_NULL_OBJECT));
+    }
+
+    protected ObjectReader getXmlReader(Class<?> type) {
+        return xmlReaders.computeIfAbsent(type, xmlMapper::readerFor);
+    }
 
+    protected ObjectWriter getJsonWriter(Class<?> type) {
+        return jsonWriters.computeIfAbsent(type, t -> objectMapper.writerFor(t).without(JsonGenerator.Feature.AUTO_CLOSE_TARGET));
+    }
+
+    protected ObjectWriter getXmlWriter(Class<?> type) {
+        return xmlWriters.computeIfAbsent(type, t -> xmlMapper.writerFor(t).without(JsonGenerator.Feature.AUTO_CLOSE_TARGET));
+    }
+
+    private RequestSSL getRequestSSL(ApiClientHttpRequest<?, ?> request) throws UnexpectedBehaviourException {
         if (request.getApiClientSSLBase64Params() != null) {
             try {
-                sslContext = SSLUtil.getSSLContextForBase64Certificate(request.getApiClientSSLBase64Params().getPassword(), request.getApiClientSSLBase64Params().getCert());
+                var sslParams = request.getApiClientSSLBase64Params();
+                var fingerprint = SSLContextCache.getBase64CertificateFingerprint(sslParams.getPassword(), sslParams.getCert());
+                return new RequestSSL(SSL_CONTEXT_CACHE.get(fingerprint, () -> SSLUtil.getSSLContextForBase64Certificate(sslParams.getPassword(), sslParams.getCert())), fingerprint);
             } catch (Exception e) {
                 log.info("Api client ssl context error", e);
                 throw new UnexpectedBehaviourException("ssl_context");
             }
-        } else {
+        } else if (request.getApiClientSSLParams() != null) {
             try {
-                sslContext = request.getApiClientSSLParams() != null ? SSLUtil.getSSLContextForCertificate(request.getApiClientSSLParams().getPrivateKeyPem(), request.getApiClientSSLParams().getCertificatePem()) : null;
+                var sslParams = request.getApiClientSSLParams();
+                var fingerprint = SSLContextCache.getCertificateFingerprint(sslParams.getPrivateKeyPem(), sslParams.getCertificatePem());
+                return new RequestSSL(SSL_CONTEXT_CACHE.get(fingerprint, () -> SSLUtil.getSSLContextForCertificate(sslParams.getPrivateKeyPem(), sslParams.getCertificatePem())), fingerprint);
             } catch (Exception e) {
                 log.info("Api client ssl context error", e);
                 throw new UnexpectedBehaviourException("ssl_context");
             }
         }
-        CloseableHttpClient httpClient;
-        try {
-            httpClient = getHttpClient(responseTimeout, sslContext, request.isFollowHttpRedirect());
+        return new RequestSSL(null, null);
+    }
 
+    /**
+     * Собирает http запрос с телом и заголовками, общий для блокирующих и асинхронных запросов
+     */
+    private <TRequest, T extends HttpRequest> T prepareHttpRequest(ApiClientHttpRequest<TRequest, ?> request,
+                                                                   IHttpRequestFactory<T> requestFactory,
+                                                                   ApiResponseCacheLookup cacheLookup,
+                                                                   ApiRequestMetrics requestMetrics,
+                                                                   ApiRequestTrace trace) throws UnexpectedBehaviourException, IOException {
+        T httpRequest;
+        if (request.getMethod().allowsBody()) {
             String requestBody = null;
+            // без препроцессора, которому нужна строка, объект сериализуется прямо в тело запроса
+            ObjectWriter requestWriter = null;
             ContentType contentType = null;
-            ClassicHttpRequest httpRequest;
-
-            if (request.getMethod().allowsBody()) {
-                if (request.getRequest() != null) {
-                    switch (request.getRequestBodyType()) {
-                        case JSON:
-                            requestBody = objectMapper.writeValueAsString(request.getRequest());
-                            contentType = ContentType.create(ContentType.APPLICATION_JSON.getMimeType(), request.getRequestBodyCharset());
-                            break;
-                        case XML:
-                            requestBody = xmlMapper.writeValueAsString(request.getRequest());
-                            contentType = ContentType.create(ContentType.APPLICATION_XML.getMimeType(), request.getRequestBodyCharset());
-                            break;
-                        case FORM:
-                            @SuppressWarnings("unchecked")
-                            Map<String, String> map = (Map<String, String>) request.getRequest();
-                            requestBody = Uri.compileQuery(map);
-                            contentType = ContentType.create(ContentType.APPLICATION_FORM_URLENCODED.getMimeType(), request.getRequestBodyCharset());
-                            break;
-                        case TEXT:
-                            requestBody = request.getRequest().toString();
-                            contentType = ContentType.create(ContentType.TEXT_PLAIN.getMimeType(), request.getRequestBodyCharset());
-                            break;
-                        case TEXT_XML:
-                            requestBody = request.getRequest().toString();
-                            contentType = ContentType.create(ContentType.TEXT_XML.getMimeType(), request.getRequestBodyCharset());
-                            break;
-                        default:
-                            throw new UnexpectedBehaviourException("Unexpected RequestBodyType value: " + request.getRequestBodyType());
-                    }
-                }
-
-                ClassicHttpRequest enclosingRequestBase;
-                switch (request.getMethod()) {
-                    case POST:
-                        enclosingRequestBase = new HttpPost(request.getUrl());
+            if (request.getRequest() != null) {
+                switch (request.getRequestBodyType()) {
+                    case JSON:
+                        requestWriter = getJsonWriter(request.getRequest().getClass());
+                        contentType = ContentType.create(ContentType.APPLICATION_JSON.getMimeType(), request.getRequestBodyCharset());
                         break;
-                    case PUT:
-                        enclosingRequestBase = new HttpPut(request.getUrl());
+                    case XML:
+                        requestWriter = getXmlWriter(request.getRequest().getClass());
+                        contentType = ContentType.create(ContentType.APPLICATION_XML.getMimeType(), request.getRequestBodyCharset());
                         break;
-                    case PATCH:
-                        enclosingRequestBase = new HttpPatch(request.getUrl());
+                    case FORM:
+                        @SuppressWarnings("unchecked")
+                        Map<String, String> map = (Map<String, String>) request.getRequest();
+                        requestBody = Uri.compileQuery(map);
+                        contentType = ContentType.create(ContentType.APPLICATION_FORM_URLENCODED.getMimeType(), request.getRequestBodyCharset());
                         break;
-                    default:
-                        throw new UnexpectedBehaviourException("Unexpected method value: " + request.getMethod());
-                }
-                if (requestBody != null) {
-                    if (request.getRequestPreprocessor() != null) {
-                        requestBody = request.getRequestPreprocessor().preprocessHttpRequest(enclosingRequestBase, request, requestBody);
-                    }
-                    enclosingRequestBase.setEntity(new StringEntity(requestBody, contentType));
-                }
-                httpRequest = enclosingRequestBase;
-
-            } else {
-                switch (request.getMethod()) {
-                    case GET:
-                        httpRequest = new HttpGet(request.getUrl());
+                    case TEXT:
+                        requestBody = request.getRequest().toString();
+                        contentType = ContentType.create(ContentType.TEXT_PLAIN.getMimeType(), request.getRequestBodyCharset());
                         break;
-                    case DELETE:
-                        httpRequest = new HttpDelete(request.getUrl());
+                    case TEXT_XML:
+                        requestBody = request.getRequest().toString();
+                        contentType = ContentType.create(ContentType.TEXT_XML.getMimeType(), request.getRequestBodyCharset());
                         break;
                     default:
-                        throw new UnexpectedBehaviourException("Unexpected method value: " + request.getMethod());
+                        throw new UnexpectedBehaviourException("Unexpected RequestBodyType value: " + request.getRequestBodyType());
+                }
+                if (requestWriter != null && request.getRequestPreprocessor() != null) {
+                    var startTime = System.nanoTime();
+                    requestBody = requestWriter.writeValueAsString(request.getRequest());
+                    requestMetrics.serialized(System.nanoTime() - startTime);
+                    requestWriter = null;
                 }
             }
 
-            if (request.getApiClientHttpAuth() != null) {
-                httpRequest.addHeader(request.getApiClientHttpAuth().getHeaderName(), request.getApiClientHttpAuth().getHeaderValue());
+            switch (request.getMethod()) {
+                case POST:
+                case PUT:
+                case PATCH:
+                    httpRequest = requestFactory.create(request.getMethod(), request.getUrl());
+                    break;
+                default:
+                    throw new UnexpectedBehaviourException("Unexpected method value: " + request.getMethod());
             }
-
-            if (!request.getHeaders().entrySet().isEmpty()) {
-                for (Map.Entry<String, String> entry : request.getHeaders().entrySet()) {
-                    httpRequest.addHeader(entry.getKey(), entry.getValue());
+            if (requestWriter != null) {
+                requestFactory.setBody(httpRequest, requestWriter, request.getRequest(), contentType, requestMetrics::serialized);
+                trace.request(httpRequest, requestWriter, request.getRequest());
+            } else if (requestBody != null) {
+                if (request.getRequestPreprocessor() != null) {
+                    requestBody = request.getRequestPreprocessor().preprocessHttpRequest(httpRequest, request, requestBody);
                 }
+                requestFactory.setBody(httpRequest, requestBody, contentType);
+                trace.request(httpRequest, requestBody);
+            } else {
+                trace.request(httpRequest, null);
             }
 
-            {//возможно этот блок лишний ибо мы никогда не заполняли Accept заголовок, но пусть будет
-                switch (request.getResponseBodyType()) {
-                    case JSON:
-                        httpRequest.addHeader(HttpHeaders.ACCEPT, "application/json");
-                        break;
-                    case XML:
-                        httpRequest.addHeader(HttpHeaders.ACCEPT, "application/xml");
-                        break;
-                    case TEXT:
-                        httpRequest.addHeader(HttpHeaders.ACCEPT, "*/*");
-                        break;
-                    default:
-                        break;
-                }
+        } else {
+            switch (request.getMethod()) {
+                case GET:
+                case DELETE:
+                    httpRequest = requestFactory.create(request.getMethod(), request.getUrl());
+                    break;
+                default:
+                    throw new UnexpectedBehaviourException("Unexpected method value: " + request.getMethod());
             }
+            trace.request(httpRequest, null);
+        }
+
+        if (request.getApiClientHttpAuth() != null) {
+            httpRequest.addHeader(request.getApiClientHttpAuth().getHeaderName(), request.getApiClientHttpAuth().getHeaderValue());
+        }
 
-            var requestHeadersMap = new HashMap<String, String>();
-            for (var hdr : httpRequest.getHeaders()) {
-                requestHeadersMap.put(hdr.getName(), hdr.getValue());
+        if (!request.getHeaders().entrySet().isEmpty()) {
+            for (Map.Entry<String, String> entry : request.getHeaders().entrySet()) {
+                httpRequest.addHeader(entry.getKey(), entry.getValue());
             }
+        }
 
+        if (cacheLookup != null) {
+            cacheLookup.addValidators(httpRequest);
+        }
 
-            long startTime = System.currentTimeMillis();
-            try (var httpResponse = httpClient.execute(httpRequest)) {
-                log.info("Received response: " + httpResponse);
-                var statusCode = httpResponse.getCode();
+        {//возможно этот блок лишний ибо мы никогда не заполняли Accept заголовок, но пусть будет
+            switch (request.getResponseBodyType()) {
+                case JSON:
+                    httpRequest.addHeader(HttpHeaders.ACCEPT, "application/json");
+                    break;
+                case XML:
+                    httpRequest.addHeader(HttpHeaders.ACCEPT, "application/xml");
+                    break;
+                case TEXT:
+                    httpRequest.addHeader(HttpHeaders.ACCEPT, "*/*");
+                    break;
+                default:
+                    break;
+            }
+        }
+        return httpRequest;
+    }
 
-                var responseHeaders = new HashMap<String, String>();
-                for (var hdr : httpResponse.getHeaders()) {
-                    responseHeaders.put(hdr.getName(), hdr.getValue());
-                }
+    /**
+     * Разбирает ответ или отдает сохраненный на 304 и кладет ответ 200 в кеш, общий для блокирующих и асинхронных запросов
+     */
+    private <TResponse> TResponse processResponse(ApiClientHttpRequest<?, TResponse> request,
+                                                  HttpResponse httpResponse,
+                                                  IResponseBody body,
+                                                  ApiResponseCacheLookup cacheLookup,
+                                                  ApiRequestMetrics requestMetrics,
+                                                  ApiRequestTrace trace) throws UnexpectedBehaviourException, IOException, ParseException {
+        var statusCode = httpResponse.getCode();
+        requestMetrics.responded(statusCode);
+        trace.response(httpResponse);
 
-                var entity = httpResponse.getEntity();
-                String bodyString = null;
-                byte[] bodyBytes = null;
-                if (request.getResponseBodyType() != ApiClientBodyType.BLOB) {
-                    bodyString = entity != null ? EntityUtils.toString(httpResponse.getEntity(), request.getResponseBodyCharset()) : null;
-                    if (bodyString != null) {
-                        log.info("Response body: " + bodyString);
-                        if (request.getResponseBodyPreprocessor() != null) {
-                            bodyString = request.getResponseBodyPreprocessor().preprocessHttpResponse(httpResponse, bodyString);
-                        }
-                    }
-                } else {
-                    bodyBytes = entity != null ? EntityUtils.toByteArray(httpResponse.getEntity()) : null;
-                    if (bodyBytes != null) {
-                        log.info("Response body bytes with length: " + bodyBytes.length);
-                    }
-                }
+        if (cacheLookup != null && cacheLookup.isCached() && statusCode == HttpStatus.SC_NOT_MODIFIED) {
+            trace.responseBodyInfo("<not modified, cached response>");
+            TResponse response = cacheLookup.getResponse();
+            cacheLookup.store(httpResponse, response);
+            return response;
+        }
+        var response = parseResponse(request, httpResponse, body, requestMetrics, trace);
+        if (cacheLookup != null && statusCode == HttpStatus.SC_OK && response != null) {
+            cacheLookup.store(httpResponse, response);
+        }
+        return response;
+    }
+
+    /**
+     * Разбирает ответ по типу тела запроса
+     */
+    private <TResponse> TResponse parseResponse(ApiClientHttpRequest<?, TResponse> request,
+                                                HttpResponse httpResponse,
+                                                IResponseBody body,
+                                                ApiRequestMetrics requestMetrics,
+                                                ApiRequestTrace trace) throws UnexpectedBehaviourException, IOException, ParseException {
+        var statusCode = httpResponse.getCode();
 
-                var responseCodeProcessors = request.getHttpResponseCodeProcessors().get(httpResponse.getCode());
-                if (responseCodeProcessors != null) {
-                    return responseCodeProcessors.processResponse(httpResponse, bodyString);
+        if (request.getResponseHeadersProcessor() != null) {
+            request.getResponseHeadersProcessor().processHeaders(httpResponse);
+        }
+
+        if ((statusCode == 200 || statusCode == 201)
+                && (request.getResponseBodyType() == ApiClientBodyType.JSON || request.getResponseBodyType() == ApiClientBodyType.XML)
+                && request.getResponseBodyPreprocessor() == null
+                && !request.getHttpResponseCodeProcessors().containsKey(statusCode)
+                && body.isPresent()) {
+            // строка телу не нужна ни препроцессору, ни процессору кода ответа, читаем объект прямо из потока
+            trace.responseBodyInfo("<read as stream, content length: " + body.getContentLength() + ">");
+            var reader = request.getResponseBodyType() == ApiClientBodyType.JSON
+                    ? getJsonReader(request.getResponseClassType())
+                    : getXmlReader(request.getResponseClassType());
+            var charset = body.getCharset(request.getResponseBodyCharset());
+            var startTime = System.nanoTime();
+            try (var is = body.openStream()) {
+                TResponse response = charset == null || StandardCharsets.UTF_8.equals(charset)
+                        ? reader.readValue(is)
+                        : reader.readValue(new InputStreamReader(is, charset));
+                requestMetrics.parsed(System.nanoTime() - startTime);
+                return response;
+            }
+        }
+
+        String bodyString = null;
+        byte[] bodyBytes = null;
+        if (request.getResponseBodyType() != ApiClientBodyType.BLOB && request.getResponseBodyType() != ApiClientBodyType.STREAM) {
+            bodyString = body.isPresent() ? body.toString(request.getResponseBodyCharset()) : null;
+            if (bodyString != null) {
+                trace.responseBody(bodyString);
+                if (request.getResponseBodyPreprocessor() != null) {
+                    bodyString = request.getResponseBodyPreprocessor().preprocessHttpResponse(httpResponse, bodyString);
                 }
-                if (
-                        (request.getResponseBodyType() != null && request.getResponseBodyType() != ApiClientBodyType.BLOB && bodyString == null)
-                                || (request.getResponseBodyType() == ApiClientBodyType.BLOB && bodyBytes == null)
-                ) {
-                    throw new UnexpectedBehaviourException("response is empty");
+            }
+        } else if (request.getResponseBodyType() == ApiClientBodyType.BLOB) {
+            bodyBytes = body.isPresent() ? body.toByteArray() : null;
+            if (bodyBytes != null) {
+                trace.responseBodyInfo("<" + bodyBytes.length + " bytes>");
+            }
+        }
+
+        var responseCodeProcessors = request.getHttpResponseCodeProcessors().get(httpResponse.getCode());
+        if (responseCodeProcessors != null) {
+            return responseCodeProcessors.processResponse(httpResponse, bodyString);
+        }
+        if (
+                (request.getResponseBodyType() != null && request.getResponseBodyType() != ApiClientBodyType.BLOB && request.getResponseBodyType() != ApiClientBodyType.STREAM && bodyString == null)
+                        || (request.getResponseBodyType() == ApiClientBodyType.BLOB && bodyBytes == null)
+                        || (request.getResponseBodyType() == ApiClientBodyType.STREAM && !body.isPresent())
+        ) {
+            throw new UnexpectedBehaviourException("response is empty");
+        }
+        if (statusCode == 200 || statusCode == 201) {
+            switch (request.getResponseBodyType()) {
+                case JSON:
+                case XML: {
+                    var reader = request.getResponseBodyType() == ApiClientBodyType.JSON
+                            ? getJsonReader(request.getResponseClassType())
+                            : getXmlReader(request.getResponseClassType());
+                    var startTime = System.nanoTime();
+                    TResponse response = reader.readValue(bodyString);
+                    requestMetrics.parsed(System.nanoTime() - startTime);
+                    return response;
                 }
-                if (statusCode == 200 || statusCode == 201) {
-                    switch (request.getResponseBodyType()) {
-                        case JSON:
-                            return objectMapper.readerFor(request.getResponseClassType()).with(DeserializationFeature.ACCEPT_EMPTY_ARRAY_AS_NULL_OBJECT).readValue(bodyString);
-                        case XML:
-                            return xmlMapper.readValue(bodyString, request.getResponseClassType());
-                        case TEXT:
-                            @SuppressWarnings("unchecked") var response = (TResponse) bodyString;
-                            return response;
-                        case BLOB:
-                            @SuppressWarnings("unchecked") var byteResponse = (TResponse) bodyBytes;
-                            return byteResponse;
-                        default:
-                            throw new UnexpectedBehaviourException("Unexpected ResponseBodyType value: " + request.getRequestBodyType());
+                case TEXT:
+                    @SuppressWarnings("unchecked") var response = (TResponse) bodyString;
+                    return response;
+                case BLOB:
+                    @SuppressWarnings("unchecked") var byteResponse = (TResponse) bodyBytes;
+                    return byteResponse;
+                case STREAM:
+                    trace.responseBodyInfo("<stream, content length: " + body.getContentLength() + ">");
+                    try (var channel = body.openChannel()) {
+                        return request.getResponseBodySink().consume(channel, body.getContentLength());
                     }
-                } else {
-                    log.info("Invalid status code from server: " + statusCode);
-                    throw new UnexpectedBehaviourException("http:" + statusCode);
-                }
-            } catch (UnexpectedBehaviourException e) {
-                throw e;
-            } catch (Exception e) {
-                log.info("Error sending request", e);
-                throw new UnexpectedBehaviourException(e.getMessage());
-            } finally {
-                if (connManager == null) {
-                    httpClient.close();
-                }
+                default:
+                    throw new UnexpectedBehaviourException("Unexpected ResponseBodyType value: " + request.getRequestBodyType());
             }
-        } catch (IOException e) {
-            log.info("Error sending request", e);
-            throw new UnexpectedBehaviourException(e.getMessage());
+        } else {
+            log.info("Invalid status code from server: " + statusCode);
+            throw new UnexpectedBehaviourException("http:" + statusCode);
         }
     }
 
@@ -283,59 +772,200 @@ public abstract class ApiClientBase {
         return getHttpClient(responseTimeout, sslContext, true);
     }
 
+    /**
+     * Клиент из кеша, общий для всех запросов с такими же параметрами, закрывать его не нужно
+     *
+     * @param sslFingerprint отпечаток параметров, из которых построен sslContext, или null без клиентского сертификата
+     * @return null, если в кеше уже {@link #MAX_POOLED_HTTP_CLIENTS} клиентов
+     */
+    protected CloseableHttpClient getPooledHttpClient(Long timeout, SSLContext sslContext, String sslFingerprint, boolean enableRedirect) throws UnexpectedBehaviourException {
+        return httpClients.getPooledHttpClient(timeout, sslContext, sslFingerprint, enableRedirect, getMetrics());
+    }
+
+    /**
+     * Новый клиент, который вызывающий должен закрыть сам
+     */
     protected CloseableHttpClient getHttpClient(Long timeout, SSLContext sslContext, boolean enableRedirect) throws UnexpectedBehaviourException {
-        try {
-            int connectTimeout = (timeout == null ? this.responseTimeout.intValue() : timeout.intValue()) * 1000;
-            var configBuilder = RequestConfig.custom()
-                    .setConnectionRequestTimeout(Timeout.of(85, TimeUnit.SECONDS))
-                    .setResponseTimeout(Timeout.of(85, TimeUnit.SECONDS))
-                    .setCookieSpec("ignoreCookies");
-            if (enableRedirect) {
-                configBuilder.setRedirectsEnabled(true)
-                        .setMaxRedirects(2)
-                        .setCircularRedirectsAllowed(false);
-            } else {
-                configBuilder.setRedirectsEnabled(false);
-            }
+        return httpClients.getHttpClient(timeout, sslContext, enableRedirect);
+    }
 
-            var requestConfig = configBuilder.build();
-            var clientBuilder = HttpClients.custom()
-                    .setDefaultRequestConfig(requestConfig);
-            SSLConnectionSocketFactory sslSf;
-            if (sslContext != null) {
-                sslSf = new SSLConnectionSocketFactory(sslContext, NoopHostnameVerifier.INSTANCE);
-            } else {
-                var builder = new SSLContextBuilder();
-                builder.loadTrustMaterial(null, new TrustAllStrategy());
-                sslSf = new SSLConnectionSocketFactory(builder.build(), NoopHostnameVerifier.INSTANCE);
-            }
+    /**
+     * Асинхронный клиент из кеша, ключи и лимит общие с {@link #getPooledHttpClient}, но кеш отдельный
+     *
+     * @return null, если в кеше уже {@link #MAX_POOLED_HTTP_CLIENTS} клиентов
+     */
+    protected CloseableHttpAsyncClient getPooledHttpAsyncClient(Long timeout, SSLContext sslContext, String sslFingerprint, boolean enableRedirect) throws UnexpectedBehaviourException {
+        return httpClients.getPooledHttpAsyncClient(timeout, sslContext, sslFingerprint, enableRedirect, getMetrics());
+    }
 
-            var socketFactoryRegistry = RegistryBuilder.<ConnectionSocketFactory>create()
-                    .register("https", sslSf)
-                    .register("http", new PlainConnectionSocketFactory())
-                    .build();
-            var cm = new PoolingHttpClientConnectionManager(socketFactoryRegistry);
-            cm.setDefaultSocketConfig(SocketConfig.custom()
-                    .setSoTimeout(Timeout.of(85, TimeUnit.SECONDS))
-                    .build());
-            cm.setDefaultConnectionConfig(ConnectionConfig.custom()
-                    .setSocketTimeout(Timeout.of(85, TimeUnit.SECONDS))
-                    .setConnectTimeout(Timeout.of(85, TimeUnit.SECONDS))
-                    .setTimeToLive(TimeValue.ofMinutes(10))
-                    .build());
-            cm.setMaxTotal(100);
-            cm.setDefaultMaxPerRoute(100);
-
-            clientBuilder.setConnectionManager(cm);
-            if (enableRedirect) {
-                clientBuilder.setRedirectStrategy(new DefaultRedirectStrategy());
-            }
-            if (connManager != null) {
-                clientBuilder.setConnectionManager(connManager);
-            }
-            return clientBuilder.build();
-        } catch (NoSuchAlgorithmException | KeyStoreException | KeyManagementException ex) {
-            throw new UnexpectedBehaviourException("http:client:error", ex);
+    /**
+     * Новый запущенный асинхронный клиент с HTTP/2 по ALPN, который вызывающий должен закрыть сам
+     */
+    protected CloseableHttpAsyncClient createHttpAsyncClient(Long timeout, SSLContext sslContext, boolean enableRedirect) throws UnexpectedBehaviourException {
+        return httpClients.createHttpAsyncClient(timeout, sslContext, enableRedirect);
+    }
+
+    @Override
+    public void close() {
+        httpClients.close();
+    }
+
+    @AllArgsConstructor
+    private static class RequestSSL {
+        private final SSLContext sslContext;
+        private final String fingerprint;
+    }
+
+    private interface IHttpRequestFactory<T extends HttpRequest> {
+        T create(Method method, String url);
+
+        void setBody(T httpRequest, String body, ContentType contentType);
+
+        void setBody(T httpRequest, ObjectWriter writer, Object value, ContentType contentType, LongConsumer serializationListener) throws IOException;
+    }
+
+    private static final IHttpRequestFactory<ClassicHttpRequest> CLASSIC_REQUEST_FACTORY = new IHttpRequestFactory<>() {
+        @Override
+        public ClassicHttpRequest create(Method method, String url) {
+            return new HttpUriRequestBase(method.name(), URI.create(url));
+        }
+
+        @Override
+        public void setBody(ClassicHttpRequest httpRequest, String body, ContentType contentType) {
+            httpRequest.setEntity(new StringEntity(body, contentType));
+        }
+
+        @Override
+        public void setBody(ClassicHttpRequest httpRequest, ObjectWriter writer, Object value, ContentType contentType, LongConsumer serializationListener) {
+            httpRequest.setEntity(new JacksonHttpEntity(writer, value, contentType, serializationListener));
+        }
+    };
+
+    private static final IHttpRequestFactory<SimpleHttpRequest> ASYNC_REQUEST_FACTORY = new IHttpRequestFactory<>() {
+        @Override
+        public SimpleHttpRequest create(Method method, String url) {
+            return SimpleHttpRequest.create(method.name(), url);
+        }
+
+        @Override
+        public void setBody(SimpleHttpRequest httpRequest, String body, ContentType contentType) {
+            httpRequest.setBody(body, contentType);
+        }
+
+        @Override
+        public void setBody(SimpleHttpRequest httpRequest, ObjectWriter writer, Object value, ContentType contentType, LongConsumer serializationListener) throws IOException {
+            var startTime = System.nanoTime();
+            var body = JacksonHttpEntity.toByteArray(writer, value, contentType.getCharset());
+            serializationListener.accept(System.nanoTime() - startTime);
+            httpRequest.setBody(body, contentType);
+        }
+    };
+
+    /**
+     * Тело ответа: потоком из соединения для блокирующих запросов или уже прочитанное для асинхронных
+     */
+    private interface IResponseBody {
+        boolean isPresent();
+
+        String toString(Charset defaultCharset) throws IOException, ParseException;
+
+        byte[] toByteArray() throws IOException;
+
+        ReadableByteChannel openChannel() throws IOException;
+
+        InputStream openStream() throws IOException;
+
+        /**
+         * @return кодировка из Content-Type ответа или defaultCharset
+         */
+        Charset getCharset(Charset defaultCharset);
+
+        long getContentLength();
+    }
+
+    @AllArgsConstructor
+    private static class ClassicResponseBody implements IResponseBody {
+        private final HttpEntity entity;
+
+        @Override
+        public boolean isPresent() {
+            return entity != null;
+        }
+
+        @Override
+        public String toString(Charset defaultCharset) throws IOException, ParseException {
+            return EntityUtils.toString(entity, defaultCharset);
+        }
+
+        @Override
+        public byte[] toByteArray() throws IOException {
+            return EntityUtils.toByteArray(entity);
+        }
+
+        @Override
+        public ReadableByteChannel openChannel() throws IOException {
+            return Channels.newChannel(entity.getContent());
+        }
+
+        @Override
+        public InputStream openStream() throws IOException {
+            return entity.getContent();
+        }
+
+        @Override
+        public Charset getCharset(Charset defaultCharset) {
+            var contentType = ContentType.parseLenient(entity.getContentType());
+            return contentType != null && contentType.getCharset() != null ? contentType.getCharset() : defaultCharset;
+        }
+
+        @Override
+        public long getContentLength() {
+            return entity.getContentLength();
+        }
+    }
+
+    @AllArgsConstructor
+    private static class SimpleResponseBody implements IResponseBody {
+        private final SimpleHttpResponse response;
+
+        @Override
+        public boolean isPresent() {
+            return response.getBodyBytes() != null;
+        }
+
+        /**
+         * Кодировка выбирается как в {@link EntityUtils#toString(HttpEntity, Charset)}
+         */
+        @Override
+        public String toString(Charset defaultCharset) {
+            var charset = getCharset(defaultCharset);
+            return new String(response.getBodyBytes(), charset != null ? charset : StandardCharsets.ISO_8859_1);
+        }
+
+        @Override
+        public byte[] toByteArray() {
+            return response.getBodyBytes();
+        }
+
+        @Override
+        public ReadableByteChannel openChannel() {
+            return Channels.newChannel(openStream());
+        }
+
+        @Override
+        public InputStream openStream() {
+            return new ByteArrayInputStream(response.getBodyBytes());
+        }
+
+        @Override
+        public Charset getCharset(Charset defaultCharset) {
+            var contentType = response.getContentType();
+            return contentType != null && contentType.getCharset() != null ? contentType.getCharset() : defaultCharset;
+        }
+
+        @Override
+        public long getContentLength() {
+            return response.getBodyBytes().length;
         }
     }
 }
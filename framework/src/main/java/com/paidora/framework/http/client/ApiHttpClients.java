@@ -0,0 +1,339 @@
+package com.paidora.framework.http.client;
+
+import com.paidora.framework.exceptions.UnexpectedBehaviourException;
+import com.paidora.framework.http.client.core.ApiClientRetryPolicy;
+import com.paidora.framework.http.client.metrics.IApiClientMetrics;
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.hc.client5.http.HttpRequestRetryStrategy;
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.config.TlsConfig;
+import org.apache.hc.client5.http.impl.DefaultHttpRequestRetryStrategy;
+import org.apache.hc.client5.http.impl.DefaultRedirectStrategy;
+import org.apache.hc.client5.http.impl.async.CloseableHttpAsyncClient;
+import org.apache.hc.client5.http.impl.async.HttpAsyncClients;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClientBuilder;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.impl.nio.PoolingAsyncClientConnectionManager;
+import org.apache.hc.client5.http.impl.nio.PoolingAsyncClientConnectionManagerBuilder;
+import org.apache.hc.client5.http.socket.ConnectionSocketFactory;
+import org.apache.hc.client5.http.socket.PlainConnectionSocketFactory;
+import org.apache.hc.client5.http.ssl.ClientTlsStrategyBuilder;
+import org.apache.hc.client5.http.ssl.NoopHostnameVerifier;
+import org.apache.hc.client5.http.ssl.SSLConnectionSocketFactory;
+import org.apache.hc.client5.http.ssl.TrustAllStrategy;
+import org.apache.hc.core5.http.HttpResponse;
+import org.apache.hc.core5.http.config.RegistryBuilder;
+import org.apache.hc.core5.http.io.SocketConfig;
+import org.apache.hc.core5.http.protocol.HttpContext;
+import org.apache.hc.core5.http2.HttpVersionPolicy;
+import org.apache.hc.core5.io.CloseMode;
+import org.apache.hc.core5.pool.ConnPoolControl;
+import org.apache.hc.core5.pool.PoolStats;
+import org.apache.hc.core5.reactor.IOReactorConfig;
+import org.apache.hc.core5.ssl.SSLContextBuilder;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+
+import javax.net.ssl.SSLContext;
+import java.lang.ref.Cleaner;
+import java.lang.ref.WeakReference;
+import java.security.KeyManagementException;
+import java.security.KeyStoreException;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * HTTP клиенты одного {@link ApiClientBase}: создание отдельных клиентов и кеш клиентов с пулами соединений
+ * по сочетанию таймаута, отпечатка клиентского сертификата и политики редиректов. Кешированные клиенты закрывает
+ * {@link #close()}, а если владельца соберет GC без закрытия - {@link Cleaner} с предупреждением в логе.
+ */
+@Slf4j
+class ApiHttpClients {
+    private static final Cleaner CLEANER = Cleaner.create();
+    /**
+     * Встроенный повтор остается только для обрыва соединения у идемпотентных запросов, например закрытого сервером
+     * соединения из пула. Повторы по кодам ответа делает {@link ApiClientRetryPolicy}, встроенные повторяли бы и POST на 503
+     */
+    private static final HttpRequestRetryStrategy CONNECTION_RETRY_STRATEGY = new DefaultHttpRequestRetryStrategy(1, TimeValue.ZERO_MILLISECONDS) {
+        @Override
+        public boolean retryRequest(HttpResponse response, int execCount, HttpContext context) {
+            return false;
+        }
+    };
+
+    private final PoolingHttpClientConnectionManager connManager;
+    private final PooledHttpClients pooledHttpClients;
+    private final Cleaner.Cleanable cleanable;
+
+    /**
+     * @param owner       клиент, при сборке которого кешированные клиенты закрываются
+     * @param connManager общий connManager или null, закрывает его владелец
+     */
+    ApiHttpClients(ApiClientBase owner, PoolingHttpClientConnectionManager connManager) {
+        this.connManager = connManager;
+        var ownerClass = owner.getClass();
+        var className = ownerClass.getSimpleName().isEmpty() ? ownerClass.getName() : ownerClass.getSimpleName();
+        this.pooledHttpClients = new PooledHttpClients(className + "@" + Integer.toHexString(System.identityHashCode(owner)));
+        this.cleanable = CLEANER.register(owner, pooledHttpClients);
+    }
+
+    /**
+     * @return null, если в кеше уже {@link ApiClientBase#MAX_POOLED_HTTP_CLIENTS} клиентов
+     */
+    CloseableHttpClient getPooledHttpClient(Long timeout, SSLContext sslContext, String sslFingerprint, boolean enableRedirect,
+                                            IApiClientMetrics metrics) throws UnexpectedBehaviourException {
+        var key = new HttpClientKey(timeout, sslFingerprint, enableRedirect);
+        var httpClient = pooledHttpClients.httpClients.get(key);
+        if (httpClient != null) {
+            return httpClient;
+        }
+        synchronized (pooledHttpClients) {
+            if (pooledHttpClients.closed) {
+                throw new UnexpectedBehaviourException("http:client:closed");
+            }
+            httpClient = pooledHttpClients.httpClients.get(key);
+            if (httpClient == null) {
+                if (pooledHttpClients.httpClients.size() >= ApiClientBase.MAX_POOLED_HTTP_CLIENTS) {
+                    return null;
+                }
+                var cm = connManager != null ? connManager : createConnectionManager(timeout, sslContext);
+                httpClient = createHttpClientBuilder(timeout, enableRedirect, cm)
+                        .evictExpiredConnections()
+                        .evictIdleConnections(ApiClientBase.IDLE_CONNECTION_TIMEOUT)
+                        .build();
+                pooledHttpClients.httpClients.put(key, httpClient);
+                if (cm != connManager) {
+                    pooledHttpClients.registerPool(metrics, pooledHttpClients.getPoolName(key, false), cm);
+                }
+            }
+            return httpClient;
+        }
+    }
+
+    CloseableHttpClient getHttpClient(Long timeout, SSLContext sslContext, boolean enableRedirect) throws UnexpectedBehaviourException {
+        return createHttpClientBuilder(timeout, enableRedirect, connManager != null ? connManager : createConnectionManager(timeout, sslContext)).build();
+    }
+
+    private HttpClientBuilder createHttpClientBuilder(Long timeout, boolean enableRedirect, PoolingHttpClientConnectionManager cm) {
+        var clientBuilder = HttpClients.custom()
+                .setDefaultRequestConfig(createRequestConfig(timeout, enableRedirect))
+                .setConnectionManager(cm)
+                // общий connManager закрывает его владелец, а не клиент
+                .setConnectionManagerShared(cm == connManager)
+                .setRetryStrategy(CONNECTION_RETRY_STRATEGY);
+        if (enableRedirect) {
+            clientBuilder.setRedirectStrategy(new DefaultRedirectStrategy());
+        }
+        return clientBuilder;
+    }
+
+    private PoolingHttpClientConnectionManager createConnectionManager(Long timeout, SSLContext sslContext) throws UnexpectedBehaviourException {
+        try {
+            var sslSf = new SSLConnectionSocketFactory(sslContext != null ? sslContext : createTrustAllSSLContext(), NoopHostnameVerifier.INSTANCE);
+
+            var socketFactoryRegistry = RegistryBuilder.<ConnectionSocketFactory>create()
+                    .register("https", sslSf)
+                    .register("http", new PlainConnectionSocketFactory())
+                    .build();
+            var cm = new PoolingHttpClientConnectionManager(socketFactoryRegistry);
+            cm.setDefaultSocketConfig(SocketConfig.custom()
+                    .setSoTimeout(toTimeout(timeout))
+                    .build());
+            cm.setDefaultConnectionConfig(createConnectionConfig(timeout));
+            cm.setMaxTotal(100);
+            cm.setDefaultMaxPerRoute(100);
+            return cm;
+        } catch (NoSuchAlgorithmException | KeyStoreException | KeyManagementException ex) {
+            throw new UnexpectedBehaviourException("http:client:error", ex);
+        }
+    }
+
+    /**
+     * Ключи и лимит общие с {@link #getPooledHttpClient}, но кеш отдельный
+     *
+     * @return null, если в кеше уже {@link ApiClientBase#MAX_POOLED_HTTP_CLIENTS} клиентов
+     */
+    CloseableHttpAsyncClient getPooledHttpAsyncClient(Long timeout, SSLContext sslContext, String sslFingerprint, boolean enableRedirect,
+                                                      IApiClientMetrics metrics) throws UnexpectedBehaviourException {
+        var key = new HttpClientKey(timeout, sslFingerprint, enableRedirect);
+        var httpClient = pooledHttpClients.httpAsyncClients.get(key);
+        if (httpClient != null) {
+            return httpClient;
+        }
+        synchronized (pooledHttpClients) {
+            if (pooledHttpClients.closed) {
+                throw new UnexpectedBehaviourException("http:client:closed");
+            }
+            httpClient = pooledHttpClients.httpAsyncClients.get(key);
+            if (httpClient == null) {
+                if (pooledHttpClients.httpAsyncClients.size() >= ApiClientBase.MAX_POOLED_HTTP_CLIENTS) {
+                    return null;
+                }
+                var cm = createAsyncConnectionManager(timeout, sslContext);
+                httpClient = createHttpAsyncClient(timeout, enableRedirect, cm);
+                pooledHttpClients.httpAsyncClients.put(key, httpClient);
+                pooledHttpClients.registerPool(metrics, pooledHttpClients.getPoolName(key, true), cm);
+            }
+            return httpClient;
+        }
+    }
+
+    CloseableHttpAsyncClient createHttpAsyncClient(Long timeout, SSLContext sslContext, boolean enableRedirect) throws UnexpectedBehaviourException {
+        return createHttpAsyncClient(timeout, enableRedirect, createAsyncConnectionManager(timeout, sslContext));
+    }
+
+    private CloseableHttpAsyncClient createHttpAsyncClient(Long timeout, boolean enableRedirect, PoolingAsyncClientConnectionManager cm) {
+        var clientBuilder = HttpAsyncClients.custom()
+                .setConnectionManager(cm)
+                .setDefaultRequestConfig(createRequestConfig(timeout, enableRedirect))
+                .setRetryStrategy(CONNECTION_RETRY_STRATEGY)
+                .setIOReactorConfig(IOReactorConfig.custom()
+                        .setSoTimeout(toTimeout(timeout))
+                        .build())
+                .evictExpiredConnections()
+                .evictIdleConnections(ApiClientBase.IDLE_CONNECTION_TIMEOUT);
+        if (enableRedirect) {
+            clientBuilder.setRedirectStrategy(new DefaultRedirectStrategy());
+        }
+        var httpClient = clientBuilder.build();
+        httpClient.start();
+        return httpClient;
+    }
+
+    private PoolingAsyncClientConnectionManager createAsyncConnectionManager(Long timeout, SSLContext sslContext) throws UnexpectedBehaviourException {
+        try {
+            var tlsStrategy = ClientTlsStrategyBuilder.create()
+                    .setSslContext(sslContext != null ? sslContext : createTrustAllSSLContext())
+                    .setHostnameVerifier(NoopHostnameVerifier.INSTANCE)
+                    .build();
+            return PoolingAsyncClientConnectionManagerBuilder.create()
+                    .setTlsStrategy(tlsStrategy)
+                    .setDefaultTlsConfig(TlsConfig.custom()
+                            .setVersionPolicy(HttpVersionPolicy.NEGOTIATE)
+                            .build())
+                    .setDefaultConnectionConfig(createConnectionConfig(timeout))
+                    .setMaxConnTotal(100)
+                    .setMaxConnPerRoute(100)
+                    .build();
+        } catch (NoSuchAlgorithmException | KeyStoreException | KeyManagementException ex) {
+            throw new UnexpectedBehaviourException("http:client:error", ex);
+        }
+    }
+
+    /**
+     * @param timeout таймаут в секундах, null - {@link ApiClientBase#DEFAULT_TIMEOUT_SECONDS}
+     */
+    private static Timeout toTimeout(Long timeout) {
+        return Timeout.of(timeout != null && timeout > 0 ? timeout : ApiClientBase.DEFAULT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    }
+
+    private static RequestConfig createRequestConfig(Long timeout, boolean enableRedirect) {
+        var configBuilder = RequestConfig.custom()
+                .setConnectionRequestTimeout(toTimeout(timeout))
+                .setResponseTimeout(toTimeout(timeout))
+                .setCookieSpec("ignoreCookies");
+        if (enableRedirect) {
+            configBuilder.setRedirectsEnabled(true)
+                    .setMaxRedirects(2)
+                    .setCircularRedirectsAllowed(false);
+        } else {
+            configBuilder.setRedirectsEnabled(false);
+        }
+        return configBuilder.build();
+    }
+
+    private static ConnectionConfig createConnectionConfig(Long timeout) {
+        return ConnectionConfig.custom()
+                .setSocketTimeout(toTimeout(timeout))
+                .setConnectTimeout(toTimeout(timeout))
+                .setTimeToLive(TimeValue.ofMinutes(10))
+                .build();
+    }
+
+    private static SSLContext createTrustAllSSLContext() throws NoSuchAlgorithmException, KeyStoreException, KeyManagementException {
+        var builder = new SSLContextBuilder();
+        builder.loadTrustMaterial(null, new TrustAllStrategy());
+        return builder.build();
+    }
+
+    void close() {
+        pooledHttpClients.closedExplicitly = true;
+        cleanable.clean();
+    }
+
+    /**
+     * Кешированные клиенты и регистрации их пулов в метриках. Действие {@link Cleaner}, поэтому не ссылается
+     * на свой {@link ApiClientBase}, иначе тот никогда не станет недостижимым
+     */
+    private static class PooledHttpClients implements Runnable {
+        private final String owner;
+        private final Map<HttpClientKey, CloseableHttpClient> httpClients = new ConcurrentHashMap<>();
+        private final Map<HttpClientKey, CloseableHttpAsyncClient> httpAsyncClients = new ConcurrentHashMap<>();
+        /**
+         * Имя пула -> метрики, в которых он зарегистрирован: метрики клиента могут смениться после регистрации
+         */
+        private final Map<String, IApiClientMetrics> registeredPools = new HashMap<>();
+        private boolean closed;
+        private volatile boolean closedExplicitly;
+
+        PooledHttpClients(String owner) {
+            this.owner = owner;
+        }
+
+        /**
+         * Имя пула в метриках: класс и экземпляр клиента, таймаут, начало отпечатка сертификата и редиректы
+         */
+        String getPoolName(HttpClientKey key, boolean async) {
+            return owner
+                    + (async ? "/async" : "")
+                    + "/timeout=" + key.timeout
+                    + (key.sslFingerprint != null ? "/cert=" + key.sslFingerprint.substring(0, 8) : "")
+                    + (key.enableRedirect ? "/redirect" : "");
+        }
+
+        /**
+         * Метрики не должны удерживать пул незакрытого клиента, после его сборки регистрация удаляется при чтении метрик
+         */
+        void registerPool(IApiClientMetrics metrics, String poolName, ConnPoolControl<?> pool) {
+            var poolRef = new WeakReference<ConnPoolControl<?>>(pool);
+            Supplier<PoolStats> poolStats = () -> {
+                var currentPool = poolRef.get();
+                return currentPool != null ? currentPool.getTotalStats() : null;
+            };
+            metrics.registerPool(poolName, poolStats);
+            registeredPools.put(poolName, metrics);
+        }
+
+        @Override
+        public synchronized void run() {
+            closed = true;
+            if (!closedExplicitly && (!httpClients.isEmpty() || !httpAsyncClients.isEmpty())) {
+                log.warn("Api client " + owner + " was not closed, closing " + (httpClients.size() + httpAsyncClients.size())
+                        + " pooled http clients");
+            }
+            registeredPools.forEach((poolName, metrics) -> metrics.unregisterPool(poolName));
+            registeredPools.clear();
+            httpClients.values().forEach(httpClient -> httpClient.close(CloseMode.GRACEFUL));
+            httpClients.clear();
+            httpAsyncClients.values().forEach(httpClient -> httpClient.close(CloseMode.GRACEFUL));
+            httpAsyncClients.clear();
+        }
+    }
+
+    @EqualsAndHashCode
+    @AllArgsConstructor
+    private static class HttpClientKey {
+        private final Long timeout;
+        private final String sslFingerprint;
+        private final boolean enableRedirect;
+    }
+}
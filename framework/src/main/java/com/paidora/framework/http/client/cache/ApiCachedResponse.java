@@ -0,0 +1,28 @@
+package com.paidora.framework.http.client.cache;
+
+import lombok.*;
+
+/**
+ * Разобранный ответ с валидаторами для условного запроса. Объект ответа общий для всех, кто его получил, менять его нельзя
+ */
+@Setter
+@Getter
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@ToString
+public class ApiCachedResponse {
+    private Object response;
+    private Class<?> responseClassType;
+    private String etag;
+    private String lastModified;
+    private long storedAt;
+    /**
+     * До этого момента ответ отдается без запроса к серверу, после - только после проверки ETag или Last-Modified
+     */
+    private long expiresAt;
+
+    public boolean isFresh(long now) {
+        return expiresAt > now;
+    }
+}
@@ -0,0 +1,132 @@
+package com.paidora.framework.http.client.cache;
+
+import com.paidora.framework.http.client.Method;
+import com.paidora.framework.http.client.core.ApiClientBodyType;
+import com.paidora.framework.http.client.core.ApiClientHttpRequest;
+import com.paidora.framework.http.client.core.ApiClientSSLBase64Params;
+import com.paidora.framework.http.client.core.ApiClientSSLParams;
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Объединяет одинаковые одновременные GET в один обмен: первый запрос ведущий и выполняется, остальные ждут его ответа.
+ * Все ждущие получают один и тот же разобранный объект ответа, менять его нельзя.
+ */
+public class ApiRequestCoalescer {
+    private final Map<CoalescingKey, CompletableFuture<?>> inFlightRequests = new ConcurrentHashMap<>();
+
+    /**
+     * @param coalesceGetRequests объединять ли запрос, который не задает {@link ApiClientHttpRequest#setCoalescing} сам
+     * @return участие в общем запросе или null, если запрос не объединяется
+     */
+    public <TResponse> CoalescedRequest<TResponse> join(ApiClientHttpRequest<?, TResponse> request, boolean coalesceGetRequests) {
+        var key = getCoalescingKey(request, coalesceGetRequests);
+        if (key == null) {
+            return null;
+        }
+        var inFlight = new CompletableFuture<TResponse>();
+        @SuppressWarnings("unchecked")
+        var existing = (CompletableFuture<TResponse>) inFlightRequests.putIfAbsent(key, inFlight);
+        return existing != null ? new CoalescedRequest<>(key, existing, false) : new CoalescedRequest<>(key, inFlight, true);
+    }
+
+    /**
+     * Ключ объединения одинаковых GET: все, от чего зависят ответ и его разбор, включая авторизацию и клиентский сертификат.
+     * Запросы с потоковым телом ответа и процессором заголовков не объединяются, их побочные эффекты нужны каждому вызывающему
+     *
+     * @return ключ или null, если запрос не объединяется
+     */
+    private static CoalescingKey getCoalescingKey(ApiClientHttpRequest<?, ?> request, boolean coalesceGetRequests) {
+        var coalescing = request.getCoalescing() != null ? request.getCoalescing() : coalesceGetRequests;
+        if (!coalescing
+                || request.getMethod() != Method.GET
+                || request.getResponseBodyType() == ApiClientBodyType.STREAM
+                || request.getResponseHeadersProcessor() != null) {
+            return null;
+        }
+        var auth = request.getApiClientHttpAuth();
+        return new CoalescingKey(request.getUrl(),
+                new HashMap<>(request.getHeaders()),
+                auth != null ? auth.getHeaderName() : null,
+                auth != null ? auth.getHeaderValue() : null,
+                request.getApiClientSSLParams(),
+                request.getApiClientSSLBase64Params(),
+                request.isFollowHttpRedirect(),
+                request.getResponseBodyType(),
+                request.getResponseClassType(),
+                request.getResponseBodyCharset(),
+                request.getResponseBodyPreprocessor() != null ? request.getResponseBodyPreprocessor().getClass() : null,
+                getResponseCodeProcessorTypes(request));
+    }
+
+    /**
+     * Типы процессоров кодов ответа по кодам: от них зависит разбор ответа, но сами процессоры равенства не задают
+     */
+    static Map<Integer, Class<?>> getResponseCodeProcessorTypes(ApiClientHttpRequest<?, ?> request) {
+        var types = new TreeMap<Integer, Class<?>>();
+        request.getHttpResponseCodeProcessors().forEach((code, processor) -> types.put(code, processor.getClass()));
+        return types;
+    }
+
+    /**
+     * Участие одного вызывающего в общем запросе. Ведущий выполняет запрос и обязан вызвать {@link #complete}
+     */
+    public class CoalescedRequest<TResponse> {
+        private final CoalescingKey key;
+        private final CompletableFuture<TResponse> inFlight;
+        private final boolean leader;
+
+        private CoalescedRequest(CoalescingKey key, CompletableFuture<TResponse> inFlight, boolean leader) {
+            this.key = key;
+            this.inFlight = inFlight;
+            this.leader = leader;
+        }
+
+        public boolean isLeader() {
+            return leader;
+        }
+
+        /**
+         * @return копия общего future, чтобы отмена или прерывание ждущего не отменили общий запрос
+         */
+        public CompletableFuture<TResponse> getResponse() {
+            return inFlight.copy();
+        }
+
+        /**
+         * Отдает результат ведущего всем ждущим, следующий такой же запрос уже выполнится заново
+         */
+        public void complete(TResponse response, Throwable error) {
+            inFlightRequests.remove(key, inFlight);
+            if (error != null) {
+                inFlight.completeExceptionally(error);
+            } else {
+                inFlight.complete(response);
+            }
+        }
+    }
+
+    @EqualsAndHashCode
+    @AllArgsConstructor
+    private static class CoalescingKey {
+        private final String url;
+        private final Map<String, String> headers;
+        private final String authHeaderName;
+        private final String authHeaderValue;
+        private final ApiClientSSLParams sslParams;
+        private final ApiClientSSLBase64Params sslBase64Params;
+        private final boolean followHttpRedirect;
+        private final ApiClientBodyType responseBodyType;
+        private final Class<?> responseClassType;
+        private final Charset responseBodyCharset;
+        private final Class<?> responseBodyPreprocessorType;
+        private final Map<Integer, Class<?>> responseCodeProcessorTypes;
+    }
+}
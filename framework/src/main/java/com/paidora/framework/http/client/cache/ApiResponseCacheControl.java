@@ -0,0 +1,76 @@
+package com.paidora.framework.http.client.cache;
+
+import org.apache.hc.client5.http.utils.DateUtils;
+import org.apache.hc.core5.http.HttpHeaders;
+import org.apache.hc.core5.http.HttpResponse;
+
+import java.util.Locale;
+
+/**
+ * Срок свежести ответа для приватного кеша клиента по Cache-Control, Expires, Date и Age.
+ * Эвристическая свежесть по Last-Modified не используется: ответ без срока только проверяется у сервера.
+ */
+public final class ApiResponseCacheControl {
+    public static final long NOT_CACHEABLE = -1;
+
+    private ApiResponseCacheControl() {
+    }
+
+    /**
+     * @return сколько миллисекунд ответ свежий, 0 - хранить можно, но перед использованием проверять у сервера,
+     * {@link #NOT_CACHEABLE} - хранить нельзя
+     */
+    public static long getFreshnessMillis(HttpResponse response) {
+        var vary = response.getFirstHeader(HttpHeaders.VARY);
+        if (vary != null && vary.getValue().trim().equals("*")) {
+            return NOT_CACHEABLE;
+        }
+        Long maxAge = null;
+        var noCache = false;
+        for (var header : response.getHeaders(HttpHeaders.CACHE_CONTROL)) {
+            for (var directive : header.getValue().split(",")) {
+                var value = directive.trim().toLowerCase(Locale.ROOT);
+                if (value.equals("no-store")) {
+                    return NOT_CACHEABLE;
+                } else if (value.equals("no-cache") || value.startsWith("no-cache=")) {
+                    noCache = true;
+                } else if (value.startsWith("max-age=")) {
+                    maxAge = parseSeconds(value.substring("max-age=".length()));
+                }
+            }
+        }
+        if (noCache) {
+            return 0;
+        }
+        long freshness;
+        if (maxAge != null) {
+            freshness = maxAge * 1000;
+        } else {
+            var expires = response.getFirstHeader(HttpHeaders.EXPIRES);
+            if (expires == null) {
+                return 0;
+            }
+            // некорректный Expires, например 0, означает уже истекший ответ
+            var expiresAt = DateUtils.parseStandardDate(expires.getValue());
+            if (expiresAt == null) {
+                return 0;
+            }
+            var date = response.getFirstHeader(HttpHeaders.DATE);
+            var dateAt = date != null ? DateUtils.parseStandardDate(date.getValue()) : null;
+            freshness = expiresAt.toEpochMilli() - (dateAt != null ? dateAt.toEpochMilli() : System.currentTimeMillis());
+        }
+        var age = response.getFirstHeader(HttpHeaders.AGE);
+        if (age != null) {
+            freshness -= parseSeconds(age.getValue()) * 1000;
+        }
+        return Math.max(0, freshness);
+    }
+
+    private static long parseSeconds(String value) {
+        try {
+            return Math.max(0, Long.parseLong(value.trim().replace("\"", "")));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package com.paidora.framework.http.client.cache;
+
+import com.paidora.framework.exceptions.UnexpectedBehaviourException;
+import com.paidora.framework.http.client.Method;
+import com.paidora.framework.http.client.core.ApiClientBodyType;
+import com.paidora.framework.http.client.core.ApiClientHttpRequest;
+import com.paidora.framework.ssl.SSLContextCache;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.hc.core5.http.HttpHeaders;
+import org.apache.hc.core5.http.HttpRequest;
+import org.apache.hc.core5.http.HttpResponse;
+import org.apache.hc.core5.http.HttpStatus;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.TreeMap;
+
+/**
+ * Запись кеша для GET, который можно кешировать, в том числе устаревшая, с валидаторами для условного запроса.
+ * Ответ 200 сохраняется в {@link #store}, на 304 отдается и продлевается сохраненный объект.
+ */
+@Slf4j
+public class ApiResponseCacheLookup {
+    private final IApiResponseCache cache;
+    private final String key;
+    private final Long ttlSeconds;
+    private final Class<?> responseClassType;
+    private final ApiCachedResponse cached;
+
+    private ApiResponseCacheLookup(IApiResponseCache cache, String key, Long ttlSeconds, Class<?> responseClassType, ApiCachedResponse cached) {
+        this.cache = cache;
+        this.key = key;
+        this.ttlSeconds = ttlSeconds;
+        this.responseClassType = responseClassType;
+        this.cached = cached;
+    }
+
+    /**
+     * @return null, если кеш не настроен или запрос не кешируется
+     */
+    public static ApiResponseCacheLookup lookup(IApiResponseCache cache, ApiClientHttpRequest<?, ?> request) throws UnexpectedBehaviourException {
+        if (cache == null
+                || Boolean.FALSE.equals(request.getCaching())
+                || request.getMethod() != Method.GET
+                || request.getResponseBodyType() == ApiClientBodyType.STREAM
+                || request.getResponseHeadersProcessor() != null) {
+            return null;
+        }
+        var key = request.getCacheKey() != null ? request.getCacheKey() : getCacheKey(request);
+        var cached = cache.get(key);
+        // под одним ключом, заданным вручную, мог оказаться ответ другого типа
+        if (cached != null && cached.getResponseClassType() != request.getResponseClassType()) {
+            cached = null;
+        }
+        return new ApiResponseCacheLookup(cache, key, request.getCacheTtlSeconds(), request.getResponseClassType(), cached);
+    }
+
+    /**
+     * Ключ по умолчанию: sha256 от всего, от чего зависят ответ и его разбор, чтобы авторизация не хранилась в ключе открыто
+     */
+    private static String getCacheKey(ApiClientHttpRequest<?, ?> request) throws UnexpectedBehaviourException {
+        var key = new StringBuilder(256);
+        key.append(request.getUrl())
+                .append('\n').append(new TreeMap<>(request.getHeaders()))
+                .append('\n').append(request.getResponseBodyType())
+                .append(' ').append(request.getResponseClassType() != null ? request.getResponseClassType().getName() : null)
+                .append(' ').append(request.getResponseBodyCharset())
+                .append(' ').append(request.isFollowHttpRedirect())
+                .append(' ').append(request.getResponseBodyPreprocessor() != null ? request.getResponseBodyPreprocessor().getClass().getName() : null)
+                .append(' ').append(ApiRequestCoalescer.getResponseCodeProcessorTypes(request));
+        if (request.getApiClientHttpAuth() != null) {
+            key.append('\n').append(request.getApiClientHttpAuth().getHeaderName())
+                    .append(": ").append(request.getApiClientHttpAuth().getHeaderValue());
+        }
+        if (request.getApiClientSSLParams() != null) {
+            key.append("\ncert ").append(SSLContextCache.getCertificateFingerprint(request.getApiClientSSLParams().getPrivateKeyPem(),
+                    request.getApiClientSSLParams().getCertificatePem()));
+        } else if (request.getApiClientSSLBase64Params() != null) {
+            key.append("\ncert ").append(SSLContextCache.getBase64CertificateFingerprint(request.getApiClientSSLBase64Params().getPassword(),
+                    request.getApiClientSSLBase64Params().getCert()));
+        }
+        try {
+            var digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(key.toString().getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new UnexpectedBehaviourException("http:cache:error", e);
+        }
+    }
+
+    public boolean isFresh() {
+        return cached != null && cached.isFresh(System.currentTimeMillis());
+    }
+
+    /**
+     * @return есть ли сохраненный ответ, который можно отдать на 304
+     */
+    public boolean isCached() {
+        return cached != null;
+    }
+
+    @SuppressWarnings("unchecked")
+    public <TResponse> TResponse getResponse() {
+        return (TResponse) cached.getResponse();
+    }
+
+    /**
+     * Заголовки условного запроса по валидаторам сохраненного ответа
+     */
+    public void addValidators(HttpRequest httpRequest) {
+        if (cached != null) {
+            if (cached.getEtag() != null) {
+                httpRequest.addHeader(HttpHeaders.IF_NONE_MATCH, cached.getEtag());
+            }
+            if (cached.getLastModified() != null) {
+                httpRequest.addHeader(HttpHeaders.IF_MODIFIED_SINCE, cached.getLastModified());
+            }
+        }
+    }
+
+    /**
+     * Сохраняет ответ на срок из запроса или из заголовков ответа. Ответ без срока хранится, только если его можно
+     * проверить по ETag или Last-Modified. Валидаторы из 304 обновляют сохраненные
+     */
+    public void store(HttpResponse httpResponse, Object response) {
+        var freshness = ttlSeconds != null
+                ? Math.max(0, ttlSeconds * 1000)
+                : ApiResponseCacheControl.getFreshnessMillis(httpResponse);
+        if (freshness == ApiResponseCacheControl.NOT_CACHEABLE) {
+            cache.invalidate(key);
+            return;
+        }
+        var etag = httpResponse.getFirstHeader(HttpHeaders.ETAG);
+        var lastModified = httpResponse.getFirstHeader(HttpHeaders.LAST_MODIFIED);
+        var previous = httpResponse.getCode() == HttpStatus.SC_NOT_MODIFIED ? cached : null;
+        var cachedResponse = ApiCachedResponse.builder()
+                .response(response)
+                .responseClassType(responseClassType)
+                .etag(etag != null ? etag.getValue() : previous != null ? previous.getEtag() : null)
+                .lastModified(lastModified != null ? lastModified.getValue() : previous != null ? previous.getLastModified() : null)
+                .storedAt(System.currentTimeMillis())
+                .build();
+        if (freshness == 0 && cachedResponse.getEtag() == null && cachedResponse.getLastModified() == null) {
+            return;
+        }
+        cachedResponse.setExpiresAt(cachedResponse.getStoredAt() + freshness);
+        try {
+            cache.put(key, cachedResponse);
+        } catch (RuntimeException e) {
+            log.warn("Can't cache api client response", e);
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package com.paidora.framework.http.client.cache;
+
+import lombok.*;
+
+@Setter
+@Getter
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@ToString
+public class ApiResponseCacheStats {
+    private int size;
+    private int maxEntries;
+    /**
+     * Свежие записи, отданные без запроса к серверу
+     */
+    private long hits;
+    /**
+     * Устаревшие записи, которые пришлось проверять у сервера
+     */
+    private long staleHits;
+    private long misses;
+    private long evictions;
+    /**
+     * hits / (hits + staleHits + misses)
+     */
+    private double hitRatio;
+}
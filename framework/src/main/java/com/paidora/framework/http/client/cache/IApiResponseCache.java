@@ -0,0 +1,19 @@
+package com.paidora.framework.http.client.cache;
+
+/**
+ * Кеш разобранных ответов GET для {@link com.paidora.framework.http.client.ApiClientBase#setResponseCache}.
+ * Свежесть и повторную проверку у сервера решает клиент, кеш только хранит записи и может вытеснять их когда угодно.
+ * Методы вызываются в потоках запросов, в том числе в потоках ввода-вывода асинхронного клиента, и не должны блокировать.
+ */
+public interface IApiResponseCache {
+    /**
+     * @return запись, в том числе устаревшая, или null
+     */
+    ApiCachedResponse get(String key);
+
+    void put(String key, ApiCachedResponse response);
+
+    void invalidate(String key);
+
+    void clear();
+}
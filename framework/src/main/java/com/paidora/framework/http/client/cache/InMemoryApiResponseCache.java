@@ -0,0 +1,95 @@
+package com.paidora.framework.http.client.cache;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Кеш ответов в памяти процесса, ограниченный числом записей, при переполнении вытесняется давно не читанная запись.
+ * Устаревшие записи с ETag или Last-Modified не удаляются, чтобы их можно было проверить условным запросом.
+ */
+public class InMemoryApiResponseCache implements IApiResponseCache {
+    public static final int DEFAULT_MAX_ENTRIES = 1000;
+
+    private final int maxEntries;
+    private final Map<String, ApiCachedResponse> entries;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder staleHits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public InMemoryApiResponseCache() {
+        this(DEFAULT_MAX_ENTRIES);
+    }
+
+    public InMemoryApiResponseCache(int maxEntries) {
+        this.maxEntries = maxEntries;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, ApiCachedResponse> eldest) {
+                if (size() > InMemoryApiResponseCache.this.maxEntries) {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    @Override
+    public ApiCachedResponse get(String key) {
+        ApiCachedResponse response;
+        synchronized (entries) {
+            response = entries.get(key);
+        }
+        if (response == null) {
+            misses.increment();
+        } else if (response.isFresh(System.currentTimeMillis())) {
+            hits.increment();
+        } else {
+            staleHits.increment();
+        }
+        return response;
+    }
+
+    @Override
+    public void put(String key, ApiCachedResponse response) {
+        synchronized (entries) {
+            entries.put(key, response);
+        }
+    }
+
+    @Override
+    public void invalidate(String key) {
+        synchronized (entries) {
+            entries.remove(key);
+        }
+    }
+
+    @Override
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public ApiResponseCacheStats getStats() {
+        var hitCount = hits.sum();
+        var lookups = hitCount + staleHits.sum() + misses.sum();
+        return ApiResponseCacheStats.builder()
+                .size(size())
+                .maxEntries(maxEntries)
+                .hits(hitCount)
+                .staleHits(staleHits.sum())
+                .misses(misses.sum())
+                .evictions(evictions.sum())
+                .hitRatio(lookups > 0 ? (double) hitCount / lookups : 0)
+                .build();
+    }
+}
@@ -6,5 +6,9 @@ public enum ApiClientBodyType {
     FORM,
     TEXT,
     TEXT_XML,
-    BLOB
+    BLOB,
+    /**
+     * Ответ не читается в память, а отдается потоком в {@link IApiResponseBodySink} запроса
+     */
+    STREAM
 }
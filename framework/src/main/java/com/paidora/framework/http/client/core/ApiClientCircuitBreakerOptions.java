@@ -0,0 +1,32 @@
+package com.paidora.framework.http.client.core;
+
+import lombok.*;
+
+/**
+ * defaults:
+ * slidingWindowSize:       20 последних вызовов маршрута
+ * minimumCalls:            10 - раньше доля ошибок не оценивается
+ * failureRateThreshold:    0.5 - при такой доле ошибок в окне цепь размыкается
+ * openDurationMillis:      30 секунд вызовы отклоняются сразу, затем цепь полуоткрыта
+ * halfOpenCalls:           3 пробных вызова, все успешные замыкают цепь, первый неуспешный снова размыкает
+ * <p>
+ * Ошибкой считаются только сбои соединения, таймауты и ответы 5xx: остальные ответы означают, что сервер жив.
+ * Предохранитель один на маршрут и создается с настройками первого запроса маршрута, у остальных запросов они не учитываются.
+ */
+@Getter
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@ToString
+public class ApiClientCircuitBreakerOptions {
+    @Builder.Default
+    private int slidingWindowSize = 20;
+    @Builder.Default
+    private int minimumCalls = 10;
+    @Builder.Default
+    private double failureRateThreshold = 0.5;
+    @Builder.Default
+    private long openDurationMillis = 30_000;
+    @Builder.Default
+    private int halfOpenCalls = 3;
+}
@@ -0,0 +1,21 @@
+package com.paidora.framework.http.client.core;
+
+import lombok.*;
+
+import java.io.File;
+
+@Setter
+@Getter
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@ToString
+public class ApiClientDownloadedFile {
+    private File file;
+    private long size;
+    /**
+     * sha1 и sha256 содержимого в hex
+     */
+    private String sha1;
+    private String sha256;
+}
@@ -0,0 +1,32 @@
+package com.paidora.framework.http.client.core;
+
+import lombok.*;
+
+/**
+ * defaults:
+ * delayPercentile:         0.95 недавних длительностей успешных запросов маршрута - задержка перед хеджем
+ * minDelayMillis:          20 - задержка не меньше
+ * initialDelayMillis:      1000 - задержка, пока длительностей меньше minSamples
+ * minSamples:              20
+ * maxHedgeRatio:           0.1 - хеджей не больше этой доли запросов маршрута
+ * <p>
+ * Хеджируются только идемпотентные запросы: GET, HEAD, OPTIONS, PUT, DELETE или с заголовком Idempotency-Key.
+ * Запросы с телом ответа STREAM не хеджируются, два ответа писали бы в один sink.
+ */
+@Getter
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@ToString
+public class ApiClientHedgingPolicy {
+    @Builder.Default
+    private double delayPercentile = 0.95;
+    @Builder.Default
+    private long minDelayMillis = 20;
+    @Builder.Default
+    private long initialDelayMillis = 1000;
+    @Builder.Default
+    private int minSamples = 20;
+    @Builder.Default
+    private double maxHedgeRatio = 0.1;
+}
@@ -28,12 +28,22 @@ public class ApiClientHttpRequest<TRequest, TResponse> {
     private Charset responseBodyCharset = StandardCharsets.UTF_8;
     private IApiRequestPreprocessor<TRequest> requestPreprocessor;
     private IApiResponseStringBodyPreprocessor responseBodyPreprocessor;
+    private IApiResponseHeadersProcessor responseHeadersProcessor;
     private IApiClientHttpAuth apiClientHttpAuth;
     private ApiClientBodyType responseBodyType;
     private ApiClientSSLParams apiClientSSLParams;
     private ApiClientSSLBase64Params apiClientSSLBase64Params;
     private boolean followHttpRedirect;
     private Class<TResponse> responseClassType;
+    private IApiResponseBodySink<TResponse> responseBodySink;
+    private String metricsRoute;
+    private ApiClientRetryPolicy retryPolicy;
+    private ApiClientCircuitBreakerOptions circuitBreakerOptions;
+    private ApiClientHedgingPolicy hedgingPolicy;
+    private Boolean coalescing;
+    private Boolean caching;
+    private Long cacheTtlSeconds;
+    private String cacheKey;
 
     //region factory methods
     public static <TRequest, TResponse> ApiClientHttpRequest<TRequest, TResponse> get(String url,
@@ -47,6 +57,19 @@ public class ApiClientHttpRequest<TRequest, TResponse> {
         return api;
     }
 
+    /**
+     * GET, тело ответа которого не читается в память, а отдается потоком в sink
+     */
+    public static <TRequest, TResponse> ApiClientHttpRequest<TRequest, TResponse> getStream(String url,
+                                                                                            IApiResponseBodySink<TResponse> responseBodySink) {
+        var api = new ApiClientHttpRequest<TRequest, TResponse>();
+        api.url = url;
+        api.method = Method.GET;
+        api.responseBodyType = ApiClientBodyType.STREAM;
+        api.responseBodySink = responseBodySink;
+        return api;
+    }
+
     public static <TRequest, TResponse> ApiClientHttpRequest<TRequest, TResponse> post(String url,
                                                                                        ApiClientBodyType requestBodyType,
                                                                                        TRequest request,
@@ -134,6 +157,11 @@ public class ApiClientHttpRequest<TRequest, TResponse> {
         return this;
     }
 
+    public ApiClientHttpRequest<TRequest, TResponse> setResponseHeadersProcessor(IApiResponseHeadersProcessor responseHeadersProcessor) {
+        this.responseHeadersProcessor = responseHeadersProcessor;
+        return this;
+    }
+
     public ApiClientHttpRequest<TRequest, TResponse> setApiClientHttpAuth(IApiClientHttpAuth apiClientHttpAuth) {
         this.apiClientHttpAuth = apiClientHttpAuth;
         return this;
@@ -153,6 +181,72 @@ public class ApiClientHttpRequest<TRequest, TResponse> {
         this.followHttpRedirect = followHttpRedirect;
         return this;
     }
+
+    /**
+     * Имя маршрута в метриках вместо пути url, для путей с идентификаторами, которые не распознаются автоматически
+     */
+    public ApiClientHttpRequest<TRequest, TResponse> setMetricsRoute(String metricsRoute) {
+        this.metricsRoute = metricsRoute;
+        return this;
+    }
+
+    /**
+     * Повторы этого запроса вместо политики клиента
+     */
+    public ApiClientHttpRequest<TRequest, TResponse> setRetryPolicy(ApiClientRetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+        return this;
+    }
+
+    /**
+     * Хеджирование медленных ответов, только для идемпотентных запросов. Блокирующий запрос с хеджированием
+     * выполняется через асинхронный клиент, как {@link com.paidora.framework.http.client.ApiClientBase#makeApiRequestAsync}
+     */
+    public ApiClientHttpRequest<TRequest, TResponse> setHedgingPolicy(ApiClientHedgingPolicy hedgingPolicy) {
+        this.hedgingPolicy = hedgingPolicy;
+        return this;
+    }
+
+    /**
+     * Объединение с такими же одновременными GET в один обмен вместо настройки клиента, null - как у клиента
+     */
+    public ApiClientHttpRequest<TRequest, TResponse> setCoalescing(Boolean coalescing) {
+        this.coalescing = coalescing;
+        return this;
+    }
+
+    /**
+     * false - не брать ответ из кеша клиента и не класть в него, null - кешировать, если у клиента есть кеш
+     */
+    public ApiClientHttpRequest<TRequest, TResponse> setCaching(Boolean caching) {
+        this.caching = caching;
+        return this;
+    }
+
+    /**
+     * Срок хранения ответа в кеше вместо Cache-Control и Expires ответа, в том числе для ответов с no-store
+     */
+    public ApiClientHttpRequest<TRequest, TResponse> setCacheTtlSeconds(Long cacheTtlSeconds) {
+        this.cacheTtlSeconds = cacheTtlSeconds;
+        return this;
+    }
+
+    /**
+     * Ключ кеша вместо вычисленного из url, заголовков, авторизации и типа ответа,
+     * например чтобы не различать запросы по меняющемуся параметру
+     */
+    public ApiClientHttpRequest<TRequest, TResponse> setCacheKey(String cacheKey) {
+        this.cacheKey = cacheKey;
+        return this;
+    }
+
+    /**
+     * Настройки предохранителя маршрута вместо настроек клиента, применяются при создании предохранителя маршрута
+     */
+    public ApiClientHttpRequest<TRequest, TResponse> setCircuitBreakerOptions(ApiClientCircuitBreakerOptions circuitBreakerOptions) {
+        this.circuitBreakerOptions = circuitBreakerOptions;
+        return this;
+    }
     //endregion
 
     public ApiClientHttpRequest<TRequest, TResponse> registerHttpResponseCodeProcessor(IApiClientHttpResponseCodeProcessor<TResponse> processor) {
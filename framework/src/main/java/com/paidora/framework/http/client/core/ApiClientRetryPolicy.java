@@ -0,0 +1,99 @@
+package com.paidora.framework.http.client.core;
+
+import com.paidora.framework.http.client.Method;
+import lombok.*;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.UnknownHostException;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * defaults:
+ * maxAttempts:             3 - вместе с первой попыткой
+ * initialBackoffMillis:    100, дальше растет в backoffMultiplier раз до maxBackoffMillis
+ * backoffMultiplier:       2
+ * maxBackoffMillis:        2000
+ * retryOnStatuses:         502, 503, 504
+ * retryNonIdempotent:      false
+ * <p>
+ * Задержка берется случайной между половиной и полной величиной шага, чтобы повторы разных клиентов не совпадали.
+ * Ошибки соединения, при которых запрос точно не ушел на сервер, повторяются для любых методов. Таймауты, обрывы
+ * и статусы из retryOnStatuses повторяются только для идемпотентных методов или запросов с заголовком Idempotency-Key,
+ * если не включен retryNonIdempotent.
+ */
+@Getter
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@ToString
+public class ApiClientRetryPolicy {
+    public static final String IDEMPOTENCY_KEY_HEADER = "Idempotency-Key";
+    private static final Set<Method> IDEMPOTENT_METHODS = Set.of(Method.GET, Method.HEAD, Method.OPTIONS, Method.PUT, Method.DELETE, Method.TRACE);
+
+    @Builder.Default
+    private int maxAttempts = 3;
+    @Builder.Default
+    private long initialBackoffMillis = 100;
+    @Builder.Default
+    private double backoffMultiplier = 2;
+    @Builder.Default
+    private long maxBackoffMillis = 2000;
+    @Builder.Default
+    private Set<Integer> retryOnStatuses = Set.of(502, 503, 504);
+    private boolean retryNonIdempotent;
+
+    /**
+     * @param attempt номер неудавшейся попытки, начиная с 1
+     * @param status  код ответа неудавшейся попытки или 0, если ответа не было
+     * @param error   исключение попытки
+     * @return задержка перед следующей попыткой или -1, если повторять не нужно
+     */
+    public long getRetryDelayMillis(int attempt, Method method, Map<String, String> headers, int status, Throwable error) {
+        if (attempt >= maxAttempts || !isRetryable(method, headers, status, error)) {
+            return -1;
+        }
+        var backoff = Math.min(maxBackoffMillis, (long) (initialBackoffMillis * Math.pow(backoffMultiplier, attempt - 1)));
+        return backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+    }
+
+    private boolean isRetryable(Method method, Map<String, String> headers, int status, Throwable error) {
+        if (status == 0 && isNotSent(error)) {
+            return true;
+        }
+        if (!retryNonIdempotent && !isIdempotent(method, headers)) {
+            return false;
+        }
+        return status != 0 ? retryOnStatuses.contains(status) : findCause(error, IOException.class) != null;
+    }
+
+    /**
+     * Идемпотентный метод или запрос с заголовком Idempotency-Key, который можно безопасно отправить повторно
+     */
+    public static boolean isIdempotent(Method method, Map<String, String> headers) {
+        return IDEMPOTENT_METHODS.contains(method)
+                || headers.keySet().stream().anyMatch(IDEMPOTENCY_KEY_HEADER::equalsIgnoreCase);
+    }
+
+    private static boolean isNotSent(Throwable error) {
+        return findCause(error, ConnectException.class) != null
+                || findCause(error, org.apache.hc.client5.http.ConnectTimeoutException.class) != null
+                || findCause(error, UnknownHostException.class) != null
+                || findCause(error, NoRouteToHostException.class) != null;
+    }
+
+    /**
+     * Ищет в цепочке причин исключение заданного типа
+     */
+    public static <T extends Throwable> T findCause(Throwable error, Class<T> type) {
+        for (var cause = error; cause != null; cause = cause.getCause() == cause ? null : cause.getCause()) {
+            if (type.isInstance(cause)) {
+                return type.cast(cause);
+            }
+        }
+        return null;
+    }
+}
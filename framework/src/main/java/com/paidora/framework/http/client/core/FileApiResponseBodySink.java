@@ -0,0 +1,59 @@
+package com.paidora.framework.http.client.core;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * Пишет тело ответа в файл через direct буфер, попутно считая sha1 и sha256, так что размер ответа не влияет на кучу
+ */
+public class FileApiResponseBodySink implements IApiResponseBodySink<ApiClientDownloadedFile> {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Path file;
+
+    public FileApiResponseBodySink(Path file) {
+        this.file = file;
+    }
+
+    @Override
+    public ApiClientDownloadedFile consume(ReadableByteChannel body, long contentLength) throws IOException {
+        MessageDigest sha1;
+        MessageDigest sha256;
+        try {
+            sha1 = MessageDigest.getInstance("SHA-1");
+            sha256 = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        var buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        long size = 0;
+        try (var out = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (body.read(buffer) >= 0) {
+                buffer.flip();
+                sha1.update(buffer.duplicate());
+                sha256.update(buffer.duplicate());
+                while (buffer.hasRemaining()) {
+                    size += out.write(buffer);
+                }
+                buffer.clear();
+            }
+            out.force(true);
+        }
+        if (contentLength >= 0 && size != contentLength) {
+            throw new IOException("Response body is truncated: " + size + " of " + contentLength + " bytes");
+        }
+        return ApiClientDownloadedFile.builder()
+                .file(file.toFile())
+                .size(size)
+                .sha1(HexFormat.of().formatHex(sha1.digest()))
+                .sha256(HexFormat.of().formatHex(sha256.digest()))
+                .build();
+    }
+}
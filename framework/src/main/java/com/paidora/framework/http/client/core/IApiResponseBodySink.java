@@ -0,0 +1,14 @@
+package com.paidora.framework.http.client.core;
+
+import java.io.IOException;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Получатель тела ответа для {@link ApiClientBodyType#STREAM}, вызывается только для успешных ответов
+ */
+public interface IApiResponseBodySink<TResponse> {
+    /**
+     * @param contentLength длина из заголовка или -1, если она неизвестна
+     */
+    TResponse consume(ReadableByteChannel body, long contentLength) throws IOException;
+}
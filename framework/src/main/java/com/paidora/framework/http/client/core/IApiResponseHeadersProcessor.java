@@ -0,0 +1,10 @@
+package com.paidora.framework.http.client.core;
+
+import org.apache.hc.core5.http.HttpResponse;
+
+/**
+ * Вызывается для каждого ответа до чтения тела, например, чтобы запомнить валидаторы кеша
+ */
+public interface IApiResponseHeadersProcessor {
+    void processHeaders(HttpResponse response);
+}
@@ -0,0 +1,92 @@
+package com.paidora.framework.http.client.core;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.io.entity.AbstractHttpEntity;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.function.LongConsumer;
+
+/**
+ * Тело запроса, которое сериализуется jackson прямо в поток соединения, без промежуточной строки.
+ * Длина заранее неизвестна, поэтому тело уходит chunked. Повторяемое: при повторной отправке объект сериализуется заново.
+ * Время сериализации, которое получает serializationListener, включает запись в сокет.
+ */
+public class JacksonHttpEntity extends AbstractHttpEntity {
+    private final ObjectWriter writer;
+    private final Object value;
+    private final Charset charset;
+    private final LongConsumer serializationListener;
+
+    public JacksonHttpEntity(ObjectWriter writer, Object value, ContentType contentType) {
+        this(writer, value, contentType, null);
+    }
+
+    /**
+     * @param serializationListener получает длительность каждой записи тела в наносекундах, может быть null
+     */
+    public JacksonHttpEntity(ObjectWriter writer, Object value, ContentType contentType, LongConsumer serializationListener) {
+        super(contentType, null, true);
+        // поток закрывает сам http клиент
+        this.writer = writer.without(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        this.value = value;
+        this.charset = contentType.getCharset();
+        this.serializationListener = serializationListener;
+    }
+
+    /**
+     * @return тело в кодировке charset, для UTF-8 без промежуточной строки
+     */
+    public static byte[] toByteArray(ObjectWriter writer, Object value, Charset charset) throws IOException {
+        if (charset == null || StandardCharsets.UTF_8.equals(charset)) {
+            return writer.writeValueAsBytes(value);
+        }
+        return writer.writeValueAsString(value).getBytes(charset);
+    }
+
+    @Override
+    public void writeTo(OutputStream outStream) throws IOException {
+        var startTime = System.nanoTime();
+        if (charset == null || StandardCharsets.UTF_8.equals(charset)) {
+            writer.writeValue(outStream, value);
+        } else {
+            var outWriter = new OutputStreamWriter(outStream, charset);
+            writer.writeValue(outWriter, value);
+            outWriter.flush();
+        }
+        if (serializationListener != null) {
+            serializationListener.accept(System.nanoTime() - startTime);
+        }
+    }
+
+    @Override
+    public InputStream getContent() throws IOException {
+        return new ByteArrayInputStream(toByteArray(writer, value, charset));
+    }
+
+    @Override
+    public long getContentLength() {
+        return -1;
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        return true;
+    }
+
+    @Override
+    public boolean isStreaming() {
+        return false;
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,7 @@
+package com.paidora.framework.http.client.metrics;
+
+public enum ApiClientCircuitBreakerState {
+    CLOSED,
+    OPEN,
+    HALF_OPEN
+}
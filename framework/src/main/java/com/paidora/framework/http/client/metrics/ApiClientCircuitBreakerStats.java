@@ -0,0 +1,19 @@
+package com.paidora.framework.http.client.metrics;
+
+import lombok.*;
+
+@Setter
+@Getter
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@ToString
+public class ApiClientCircuitBreakerStats {
+    private String host;
+    private String route;
+    private ApiClientCircuitBreakerState state;
+    /**
+     * Сколько раз цепь размыкалась
+     */
+    private long openedCount;
+}
@@ -0,0 +1,19 @@
+package com.paidora.framework.http.client.metrics;
+
+import lombok.*;
+
+@Setter
+@Getter
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@ToString
+public class ApiClientErrorStats {
+    private String host;
+    private String route;
+    /**
+     * Сообщение UnexpectedBehaviourException, например http:404, или класс исключения ввода-вывода
+     */
+    private String reason;
+    private long count;
+}
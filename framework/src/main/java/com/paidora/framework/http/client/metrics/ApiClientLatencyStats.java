@@ -0,0 +1,25 @@
+package com.paidora.framework.http.client.metrics;
+
+import lombok.*;
+
+/**
+ * Длительности по маршруту, для сериализации и разбора ответа method и status не заполняются
+ */
+@Setter
+@Getter
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@ToString
+public class ApiClientLatencyStats {
+    private String host;
+    private String route;
+    private String method;
+    private Integer status;
+    private long count;
+    private double meanMillis;
+    private double maxMillis;
+    private double p50Millis;
+    private double p90Millis;
+    private double p99Millis;
+}
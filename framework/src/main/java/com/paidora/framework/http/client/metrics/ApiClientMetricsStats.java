@@ -0,0 +1,37 @@
+package com.paidora.framework.http.client.metrics;
+
+import lombok.*;
+
+import java.util.List;
+import java.util.Map;
+
+@Setter
+@Getter
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@ToString
+public class ApiClientMetricsStats {
+    private List<ApiClientLatencyStats> requests;
+    private List<ApiClientLatencyStats> serialization;
+    private List<ApiClientLatencyStats> parsing;
+    private List<ApiClientErrorStats> errors;
+    /**
+     * Повторы запросов, reason - код ответа или тип ошибки неудачной попытки
+     */
+    private List<ApiClientErrorStats> retries;
+    /**
+     * Хеджи запросов, reason - sent или won
+     */
+    private List<ApiClientErrorStats> hedges;
+    private List<ApiClientCircuitBreakerStats> circuitBreakers;
+    /**
+     * GET, получившие результат такого же запроса в полете, reason - coalesced
+     */
+    private List<ApiClientErrorStats> coalesced;
+    private Map<String, ApiClientPoolStats> pools;
+    /**
+     * Сколько записей ушло в маршрут {@link InMemoryApiClientMetrics#OTHER_ROUTE} из-за лимита числа серий
+     */
+    private long overflowedRecords;
+}
@@ -0,0 +1,16 @@
+package com.paidora.framework.http.client.metrics;
+
+import lombok.*;
+
+@Setter
+@Getter
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@ToString
+public class ApiClientPoolStats {
+    private int leased;
+    private int pending;
+    private int available;
+    private int max;
+}
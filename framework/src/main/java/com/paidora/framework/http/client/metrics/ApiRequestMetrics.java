@@ -0,0 +1,199 @@
+package com.paidora.framework.http.client.metrics;
+
+import com.paidora.framework.exceptions.UnexpectedBehaviourException;
+import com.paidora.framework.http.client.core.ApiClientHttpRequest;
+import lombok.extern.slf4j.Slf4j;
+
+import java.net.URI;
+import java.util.concurrent.CompletionException;
+import java.util.regex.Pattern;
+
+/**
+ * Метрики одного запроса: код ответа и причина ошибки копятся по ходу запроса и пишутся в {@link #finish}.
+ * Ошибки самих метрик только логируются, на запрос они не влияют.
+ */
+@Slf4j
+public class ApiRequestMetrics {
+    private static final Pattern ID_SEGMENT = Pattern.compile("\\d+|[0-9a-fA-F-]{16,}");
+
+    private final IApiClientMetrics metrics;
+    private final String host;
+    private final String route;
+    private final String method;
+    private long startNanos = System.nanoTime();
+    private volatile int status;
+    private volatile String errorReason;
+    private volatile Throwable failure;
+    private volatile boolean superseded;
+
+    public ApiRequestMetrics(IApiClientMetrics metrics, ApiClientHttpRequest<?, ?> request) {
+        this.metrics = metrics;
+        this.method = request.getMethod() != null ? request.getMethod().name() : null;
+        String host = null;
+        String path = null;
+        try {
+            var uri = URI.create(request.getUrl());
+            host = uri.getHost();
+            path = uri.getRawPath();
+        } catch (RuntimeException e) {
+            // некорректный url упадет в самом запросе
+        }
+        this.host = host;
+        this.route = request.getMetricsRoute() != null ? request.getMetricsRoute() : toRoute(path);
+    }
+
+    /**
+     * Путь url, в котором числа и длинные шестнадцатеричные идентификаторы заменены на {id}
+     */
+    static String toRoute(String path) {
+        if (path == null || path.isEmpty()) {
+            return "/";
+        }
+        var segments = path.split("/", -1);
+        for (var i = 0; i < segments.length; i++) {
+            if (ID_SEGMENT.matcher(segments[i]).matches()) {
+                segments[i] = "{id}";
+            }
+        }
+        return String.join("/", segments);
+    }
+
+    /**
+     * Отсчет длительности запроса, вызывается перед отправкой
+     */
+    public void started() {
+        startNanos = System.nanoTime();
+    }
+
+    public void responded(int status) {
+        this.status = status;
+    }
+
+    public void serialized(long durationNanos) {
+        try {
+            metrics.recordSerialization(host, route, durationNanos);
+        } catch (RuntimeException e) {
+            log.warn("Can't record api client metrics", e);
+        }
+    }
+
+    public void parsed(long durationNanos) {
+        try {
+            metrics.recordParsing(host, route, durationNanos);
+        } catch (RuntimeException e) {
+            log.warn("Can't record api client metrics", e);
+        }
+    }
+
+    /**
+     * Причина ошибки, которая запишется вместо сообщения итогового исключения, если оно обернуло исходное
+     */
+    public void failed(Throwable cause) {
+        if (errorReason == null) {
+            errorReason = cause.getClass().getSimpleName();
+            failure = cause;
+        }
+    }
+
+    /**
+     * @return код ответа или 0, если ответ не получен
+     */
+    public int getStatus() {
+        return status;
+    }
+
+    /**
+     * @return исходное исключение, обернутое итоговым, или null
+     */
+    public Throwable getFailure() {
+        return failure;
+    }
+
+    public IApiClientMetrics getMetrics() {
+        return metrics;
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public String getRoute() {
+        return route;
+    }
+
+    public void retried(String reason) {
+        try {
+            metrics.recordRetry(host, route, reason);
+        } catch (RuntimeException e) {
+            log.warn("Can't record api client metrics", e);
+        }
+    }
+
+    public void coalesced() {
+        try {
+            metrics.recordCoalesced(host, route);
+        } catch (RuntimeException e) {
+            log.warn("Can't record api client metrics", e);
+        }
+    }
+
+    public void hedged(String outcome) {
+        try {
+            metrics.recordHedge(host, route, outcome);
+        } catch (RuntimeException e) {
+            log.warn("Can't record api client metrics", e);
+        }
+    }
+
+    /**
+     * Запрос отменен, потому что параллельный хедж ответил раньше, в метрики запросов он не пишется
+     */
+    public void superseded() {
+        superseded = true;
+    }
+
+    public boolean isSuperseded() {
+        return superseded;
+    }
+
+    /**
+     * Запрос отклонен разомкнутым предохранителем и не отправлялся
+     */
+    public void rejected(String reason) {
+        try {
+            metrics.recordError(host, route, reason);
+        } catch (RuntimeException e) {
+            log.warn("Can't record api client metrics", e);
+        }
+    }
+
+    /**
+     * Причина с ограниченным набором значений: сообщения исключений содержат данные запроса и в метки не годятся
+     */
+    private String getErrorReason(Throwable error) {
+        if (errorReason != null) {
+            return errorReason;
+        }
+        if (status != 0) {
+            return "http:" + status;
+        }
+        if (error instanceof UnexpectedBehaviourException && error.getCause() != null) {
+            error = error.getCause();
+        }
+        return error.getClass().getSimpleName();
+    }
+
+    public void finish(Throwable error) {
+        try {
+            metrics.recordRequest(host, route, method, status, System.nanoTime() - startNanos);
+            if (error != null) {
+                if (error instanceof CompletionException && error.getCause() != null) {
+                    error = error.getCause();
+                }
+                metrics.recordError(host, route, getErrorReason(error));
+            }
+        } catch (RuntimeException e) {
+            log.warn("Can't record api client metrics", e);
+        }
+    }
+}
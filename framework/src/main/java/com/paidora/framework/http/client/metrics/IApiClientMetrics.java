@@ -0,0 +1,55 @@
+package com.paidora.framework.http.client.metrics;
+
+import org.apache.hc.core5.pool.PoolStats;
+
+import java.util.function.Supplier;
+
+/**
+ * Точка подключения метрик исходящих запросов {@link com.paidora.framework.http.client.ApiClientBase}.
+ * По умолчанию используется {@link InMemoryApiClientMetrics}, для Micrometer и подобных достаточно своей реализации.
+ * Методы вызываются в потоках запросов, в том числе в потоках ввода-вывода асинхронного клиента, и не должны блокировать.
+ */
+public interface IApiClientMetrics {
+    /**
+     * @param status код ответа или 0, если ответ не получен
+     */
+    void recordRequest(String host, String route, String method, int status, long durationNanos);
+
+    void recordSerialization(String host, String route, long durationNanos);
+
+    void recordParsing(String host, String route, long durationNanos);
+
+    void recordError(String host, String route, String reason);
+
+    /**
+     * Повтор запроса после неудачной попытки, reason - код ответа или тип ошибки попытки
+     */
+    default void recordRetry(String host, String route, String reason) {
+    }
+
+    /**
+     * Хеджирование запроса, outcome - sent, когда хедж отправлен, и won, когда его ответ пришел первым
+     */
+    default void recordHedge(String host, String route, String outcome) {
+    }
+
+    /**
+     * GET, который не отправлялся, а дождался результата такого же запроса в полете
+     */
+    default void recordCoalesced(String host, String route) {
+    }
+
+    /**
+     * Переход предохранителя маршрута в новое состояние
+     */
+    default void recordCircuitBreakerState(String host, String route, ApiClientCircuitBreakerState state) {
+    }
+
+    /**
+     * Пул соединений, состояние которого снимается при чтении метрик. Повторная регистрация с тем же именем заменяет пул.
+     * stats возвращает null, когда пула больше нет, такую регистрацию реализация может удалить сама.
+     */
+    void registerPool(String name, Supplier<PoolStats> stats);
+
+    void unregisterPool(String name);
+}
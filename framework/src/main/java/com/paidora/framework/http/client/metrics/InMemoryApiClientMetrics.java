@@ -0,0 +1,215 @@
+package com.paidora.framework.http.client.metrics;
+
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import org.apache.hc.core5.pool.PoolStats;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Метрики исходящих запросов в памяти процесса, общие для всех клиентов.
+ * Число серий в каждой группе ограничено {@link #MAX_SERIES}, сверх лимита записи попадают в хост и маршрут {@link #OTHER_ROUTE}.
+ * Причины ошибок и повторов - коды ответа и имена классов исключений, поэтому их набор тоже ограничен.
+ */
+public class InMemoryApiClientMetrics implements IApiClientMetrics {
+    public static final int MAX_SERIES = 2000;
+    public static final String OTHER_ROUTE = "other";
+    public static final String COALESCED = "coalesced";
+    private static final InMemoryApiClientMetrics INSTANCE = new InMemoryApiClientMetrics();
+
+    private final Map<RequestKey, LatencyHistogram> requests = new ConcurrentHashMap<>();
+    private final Map<RouteKey, LatencyHistogram> serialization = new ConcurrentHashMap<>();
+    private final Map<RouteKey, LatencyHistogram> parsing = new ConcurrentHashMap<>();
+    private final Map<ErrorKey, LongAdder> errors = new ConcurrentHashMap<>();
+    private final Map<ErrorKey, LongAdder> retries = new ConcurrentHashMap<>();
+    private final Map<ErrorKey, LongAdder> hedges = new ConcurrentHashMap<>();
+    private final Map<ErrorKey, LongAdder> coalesced = new ConcurrentHashMap<>();
+    private final Map<RouteKey, CircuitBreakerSeries> circuitBreakers = new ConcurrentHashMap<>();
+    private final Map<String, Supplier<PoolStats>> pools = new ConcurrentHashMap<>();
+    private final LongAdder overflowedRecords = new LongAdder();
+
+    public static InMemoryApiClientMetrics getInstance() {
+        return INSTANCE;
+    }
+
+    @Override
+    public void recordRequest(String host, String route, String method, int status, long durationNanos) {
+        getSeries(requests, new RequestKey(host, route, method, status), k -> new RequestKey(OTHER_ROUTE, OTHER_ROUTE, method, status), k -> new LatencyHistogram())
+                .record(durationNanos);
+    }
+
+    @Override
+    public void recordSerialization(String host, String route, long durationNanos) {
+        getSeries(serialization, new RouteKey(host, route), k -> new RouteKey(OTHER_ROUTE, OTHER_ROUTE), k -> new LatencyHistogram())
+                .record(durationNanos);
+    }
+
+    @Override
+    public void recordParsing(String host, String route, long durationNanos) {
+        getSeries(parsing, new RouteKey(host, route), k -> new RouteKey(OTHER_ROUTE, OTHER_ROUTE), k -> new LatencyHistogram())
+                .record(durationNanos);
+    }
+
+    @Override
+    public void recordError(String host, String route, String reason) {
+        getSeries(errors, new ErrorKey(host, route, reason), k -> new ErrorKey(OTHER_ROUTE, OTHER_ROUTE, reason), k -> new LongAdder())
+                .increment();
+    }
+
+    @Override
+    public void recordRetry(String host, String route, String reason) {
+        getSeries(retries, new ErrorKey(host, route, reason), k -> new ErrorKey(OTHER_ROUTE, OTHER_ROUTE, reason), k -> new LongAdder())
+                .increment();
+    }
+
+    @Override
+    public void recordHedge(String host, String route, String outcome) {
+        getSeries(hedges, new ErrorKey(host, route, outcome), k -> new ErrorKey(OTHER_ROUTE, OTHER_ROUTE, outcome), k -> new LongAdder())
+                .increment();
+    }
+
+    @Override
+    public void recordCoalesced(String host, String route) {
+        getSeries(coalesced, new ErrorKey(host, route, COALESCED), k -> new ErrorKey(OTHER_ROUTE, OTHER_ROUTE, COALESCED), k -> new LongAdder())
+                .increment();
+    }
+
+    @Override
+    public void recordCircuitBreakerState(String host, String route, ApiClientCircuitBreakerState state) {
+        var series = getSeries(circuitBreakers, new RouteKey(host, route), k -> new RouteKey(OTHER_ROUTE, OTHER_ROUTE), k -> new CircuitBreakerSeries());
+        series.state = state;
+        if (state == ApiClientCircuitBreakerState.OPEN) {
+            series.openedCount.increment();
+        }
+    }
+
+    @Override
+    public void registerPool(String name, Supplier<PoolStats> stats) {
+        pools.put(name, stats);
+    }
+
+    @Override
+    public void unregisterPool(String name) {
+        pools.remove(name);
+    }
+
+    public ApiClientMetricsStats getStats() {
+        var requestStats = new ArrayList<ApiClientLatencyStats>();
+        requests.forEach((key, histogram) -> requestStats.add(histogram.snapshot()
+                .host(key.host).route(key.route).method(key.method).status(key.status)
+                .build()));
+        var errorStats = getCountStats(errors);
+        var retryStats = getCountStats(retries);
+        var hedgeStats = getCountStats(hedges);
+        var circuitBreakerStats = new ArrayList<ApiClientCircuitBreakerStats>();
+        circuitBreakers.forEach((key, series) -> circuitBreakerStats.add(ApiClientCircuitBreakerStats.builder()
+                .host(key.host).route(key.route).state(series.state).openedCount(series.openedCount.sum())
+                .build()));
+        var poolStats = new TreeMap<String, ApiClientPoolStats>();
+        pools.forEach((name, supplier) -> {
+            var stats = supplier.get();
+            if (stats == null) {
+                pools.remove(name, supplier);
+                return;
+            }
+            poolStats.put(name, ApiClientPoolStats.builder()
+                    .leased(stats.getLeased())
+                    .pending(stats.getPending())
+                    .available(stats.getAvailable())
+                    .max(stats.getMax())
+                    .build());
+        });
+        var byRoute = Comparator.comparing(ApiClientLatencyStats::getHost, Comparator.nullsFirst(Comparator.<String>naturalOrder()))
+                .thenComparing(ApiClientLatencyStats::getRoute, Comparator.nullsFirst(Comparator.<String>naturalOrder()));
+        requestStats.sort(byRoute
+                .thenComparing(ApiClientLatencyStats::getMethod, Comparator.nullsFirst(Comparator.<String>naturalOrder()))
+                .thenComparing(ApiClientLatencyStats::getStatus, Comparator.nullsFirst(Comparator.<Integer>naturalOrder())));
+        circuitBreakerStats.sort(Comparator.comparing(ApiClientCircuitBreakerStats::getHost, Comparator.nullsFirst(Comparator.<String>naturalOrder()))
+                .thenComparing(ApiClientCircuitBreakerStats::getRoute, Comparator.nullsFirst(Comparator.<String>naturalOrder())));
+        return ApiClientMetricsStats.builder()
+                .requests(requestStats)
+                .serialization(getTimingStats(serialization, byRoute))
+                .parsing(getTimingStats(parsing, byRoute))
+                .errors(errorStats)
+                .retries(retryStats)
+                .hedges(hedgeStats)
+                .circuitBreakers(circuitBreakerStats)
+                .coalesced(getCountStats(coalesced))
+                .pools(poolStats)
+                .overflowedRecords(overflowedRecords.sum())
+                .build();
+    }
+
+    public void reset() {
+        requests.clear();
+        serialization.clear();
+        parsing.clear();
+        errors.clear();
+        retries.clear();
+        hedges.clear();
+        coalesced.clear();
+        circuitBreakers.clear();
+        overflowedRecords.reset();
+    }
+
+    private static List<ApiClientErrorStats> getCountStats(Map<ErrorKey, LongAdder> counters) {
+        var result = new ArrayList<ApiClientErrorStats>();
+        counters.forEach((key, count) -> result.add(ApiClientErrorStats.builder()
+                .host(key.host).route(key.route).reason(key.reason).count(count.sum())
+                .build()));
+        result.sort(Comparator.comparingLong(ApiClientErrorStats::getCount).reversed());
+        return result;
+    }
+
+    private static List<ApiClientLatencyStats> getTimingStats(Map<RouteKey, LatencyHistogram> timings, Comparator<ApiClientLatencyStats> order) {
+        var result = new ArrayList<ApiClientLatencyStats>();
+        timings.forEach((key, histogram) -> result.add(histogram.snapshot().host(key.host).route(key.route).build()));
+        result.sort(order);
+        return result;
+    }
+
+    private <K, V> V getSeries(Map<K, V> series, K key, Function<K, K> overflowKey, Function<K, V> factory) {
+        var value = series.get(key);
+        if (value != null) {
+            return value;
+        }
+        if (series.size() >= MAX_SERIES) {
+            overflowedRecords.increment();
+            key = overflowKey.apply(key);
+        }
+        return series.computeIfAbsent(key, factory);
+    }
+
+    @EqualsAndHashCode
+    @AllArgsConstructor
+    private static class RequestKey {
+        private final String host;
+        private final String route;
+        private final String method;
+        private final int status;
+    }
+
+    @EqualsAndHashCode
+    @AllArgsConstructor
+    private static class RouteKey {
+        private final String host;
+        private final String route;
+    }
+
+    @EqualsAndHashCode
+    @AllArgsConstructor
+    private static class ErrorKey {
+        private final String host;
+        private final String route;
+        private final String reason;
+    }
+
+    private static class CircuitBreakerSeries {
+        private final LongAdder openedCount = new LongAdder();
+        private volatile ApiClientCircuitBreakerState state = ApiClientCircuitBreakerState.CLOSED;
+    }
+}
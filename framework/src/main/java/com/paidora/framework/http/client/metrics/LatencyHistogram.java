@@ -0,0 +1,77 @@
+package com.paidora.framework.http.client.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Гистограмма длительностей с фиксированными границами от 100 мкс до минуты.
+ * Запись без блокировок, перцентили оцениваются верхней границей корзины.
+ */
+class LatencyHistogram {
+    private static final long[] BOUNDS_MICROS = {
+            100, 250, 500,
+            1_000, 2_500, 5_000, 10_000, 25_000, 50_000, 100_000, 250_000, 500_000,
+            1_000_000, 2_500_000, 5_000_000, 10_000_000, 30_000_000, 60_000_000
+    };
+
+    private final LongAdder[] buckets = new LongAdder[BOUNDS_MICROS.length + 1];
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sumNanos = new LongAdder();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    LatencyHistogram() {
+        for (var i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    void record(long durationNanos) {
+        var micros = TimeUnit.NANOSECONDS.toMicros(durationNanos);
+        var bucket = 0;
+        while (bucket < BOUNDS_MICROS.length && micros > BOUNDS_MICROS[bucket]) {
+            bucket++;
+        }
+        buckets[bucket].increment();
+        count.increment();
+        sumNanos.add(durationNanos);
+        maxNanos.accumulateAndGet(durationNanos, Math::max);
+    }
+
+    ApiClientLatencyStats.ApiClientLatencyStatsBuilder snapshot() {
+        var counts = new long[buckets.length];
+        long total = 0;
+        for (var i = 0; i < buckets.length; i++) {
+            counts[i] = buckets[i].sum();
+            total += counts[i];
+        }
+        var max = maxNanos.get();
+        return ApiClientLatencyStats.builder()
+                .count(total)
+                .meanMillis(total > 0 ? toMillis(sumNanos.sum()) / total : 0)
+                .maxMillis(toMillis(max))
+                .p50Millis(percentile(counts, total, 0.50, max))
+                .p90Millis(percentile(counts, total, 0.90, max))
+                .p99Millis(percentile(counts, total, 0.99, max));
+    }
+
+    private static double percentile(long[] counts, long total, double quantile, long maxNanos) {
+        if (total == 0) {
+            return 0;
+        }
+        var rank = (long) Math.ceil(quantile * total);
+        long seen = 0;
+        for (var i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                // граница корзины не может быть больше реального максимума
+                return i < BOUNDS_MICROS.length ? Math.min(BOUNDS_MICROS[i] / 1000.0, toMillis(maxNanos)) : toMillis(maxNanos);
+            }
+        }
+        return toMillis(maxNanos);
+    }
+
+    private static double toMillis(long nanos) {
+        return nanos / 1_000_000.0;
+    }
+}
@@ -0,0 +1,128 @@
+package com.paidora.framework.http.client.resilience;
+
+import com.paidora.framework.http.client.core.ApiClientCircuitBreakerOptions;
+import com.paidora.framework.http.client.core.ApiClientRetryPolicy;
+import com.paidora.framework.http.client.metrics.ApiClientCircuitBreakerState;
+
+import java.io.IOException;
+import java.util.function.Consumer;
+
+/**
+ * Предохранитель одного маршрута со скользящим окном по числу вызовов.
+ * Каждый разрешенный {@link #tryAcquire()} вызов должен закончиться {@link #onResult(boolean)}
+ * или, если вызов отменен и результата нет, {@link #release()}.
+ */
+public class ApiClientCircuitBreaker {
+    private final ApiClientCircuitBreakerOptions options;
+    private final Consumer<ApiClientCircuitBreakerState> stateListener;
+    private final boolean[] window;
+    private int windowPosition;
+    private int windowCalls;
+    private int windowFailures;
+    private ApiClientCircuitBreakerState state = ApiClientCircuitBreakerState.CLOSED;
+    private long openedAt;
+    private int halfOpenPermits;
+    private int halfOpenSuccesses;
+
+    /**
+     * @param stateListener получает новое состояние при каждом переходе, вызывается под блокировкой предохранителя
+     */
+    public ApiClientCircuitBreaker(ApiClientCircuitBreakerOptions options, Consumer<ApiClientCircuitBreakerState> stateListener) {
+        this.options = options;
+        this.stateListener = stateListener;
+        this.window = new boolean[Math.max(1, options.getSlidingWindowSize())];
+    }
+
+    /**
+     * Ошибка для предохранителя: сбой соединения или таймаут без ответа, либо ответ 5xx
+     */
+    public static boolean isFailure(int status, Throwable error) {
+        if (status != 0) {
+            return status >= 500;
+        }
+        return error != null && ApiClientRetryPolicy.findCause(error, IOException.class) != null;
+    }
+
+    /**
+     * @return можно ли выполнять вызов; в полуоткрытом состоянии разрешается только halfOpenCalls пробных
+     */
+    public synchronized boolean tryAcquire() {
+        if (state == ApiClientCircuitBreakerState.OPEN) {
+            if (System.currentTimeMillis() - openedAt < options.getOpenDurationMillis()) {
+                return false;
+            }
+            halfOpenPermits = options.getHalfOpenCalls();
+            halfOpenSuccesses = 0;
+            transition(ApiClientCircuitBreakerState.HALF_OPEN);
+        }
+        if (state == ApiClientCircuitBreakerState.HALF_OPEN) {
+            if (halfOpenPermits <= 0) {
+                return false;
+            }
+            halfOpenPermits--;
+        }
+        return true;
+    }
+
+    public synchronized void onResult(boolean failure) {
+        switch (state) {
+            case HALF_OPEN:
+                if (failure) {
+                    open();
+                } else if (++halfOpenSuccesses >= options.getHalfOpenCalls()) {
+                    resetWindow();
+                    transition(ApiClientCircuitBreakerState.CLOSED);
+                }
+                break;
+            case CLOSED:
+                if (windowCalls == window.length) {
+                    windowFailures -= window[windowPosition] ? 1 : 0;
+                } else {
+                    windowCalls++;
+                }
+                window[windowPosition] = failure;
+                windowFailures += failure ? 1 : 0;
+                windowPosition = (windowPosition + 1) % window.length;
+                if (windowCalls >= options.getMinimumCalls() && windowFailures >= options.getFailureRateThreshold() * windowCalls) {
+                    open();
+                }
+                break;
+            case OPEN:
+            default:
+                // результат вызова, начатого до размыкания
+                break;
+        }
+    }
+
+    /**
+     * Возвращает разрешение вызова без результата, в полуоткрытом состоянии его получит следующий пробный вызов
+     */
+    public synchronized void release() {
+        if (state == ApiClientCircuitBreakerState.HALF_OPEN && halfOpenPermits < options.getHalfOpenCalls()) {
+            halfOpenPermits++;
+        }
+    }
+
+    public synchronized ApiClientCircuitBreakerState getState() {
+        return state;
+    }
+
+    private void open() {
+        openedAt = System.currentTimeMillis();
+        resetWindow();
+        transition(ApiClientCircuitBreakerState.OPEN);
+    }
+
+    private void resetWindow() {
+        windowPosition = 0;
+        windowCalls = 0;
+        windowFailures = 0;
+    }
+
+    private void transition(ApiClientCircuitBreakerState newState) {
+        state = newState;
+        if (stateListener != null) {
+            stateListener.accept(newState);
+        }
+    }
+}
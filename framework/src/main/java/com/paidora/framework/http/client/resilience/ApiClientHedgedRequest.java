@@ -0,0 +1,129 @@
+package com.paidora.framework.http.client.resilience;
+
+import com.paidora.framework.http.client.core.ApiClientHedgingPolicy;
+import com.paidora.framework.http.client.metrics.ApiRequestMetrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Одна попытка с хеджем: если ответа нет дольше перцентиля недавних длительностей маршрута и бюджет позволяет,
+ * уходит такой же второй запрос. Побеждает первый успешный ответ, второй запрос отменяется и в метрики запросов
+ * не пишется. Ошибка возвращается, только если не удались все отправленные запросы.
+ */
+public class ApiClientHedgedRequest<TResponse> {
+    public static final String HEDGE_SENT = "sent";
+    public static final String HEDGE_WON = "won";
+
+    private final ApiClientHedgingPolicy policy;
+    private final ApiClientHedgingState hedgingState;
+    private final ApiRequestMetrics primaryMetrics;
+    private final Supplier<ApiRequestMetrics> hedgeMetricsFactory;
+    private final Function<ApiRequestMetrics, CompletableFuture<TResponse>> sender;
+    private final CompletableFuture<TResponse> result = new CompletableFuture<>();
+    private final List<CompletableFuture<TResponse>> parts = new ArrayList<>();
+    private final List<ApiRequestMetrics> partMetrics = new ArrayList<>();
+    private int pending;
+    private volatile ApiRequestMetrics decidingMetrics;
+
+    /**
+     * @param hedgeMetricsFactory метрики для хеджа
+     * @param sender              отправка одного запроса с переданными метриками
+     */
+    public ApiClientHedgedRequest(ApiClientHedgingPolicy policy,
+                                  ApiClientHedgingState hedgingState,
+                                  ApiRequestMetrics primaryMetrics,
+                                  Supplier<ApiRequestMetrics> hedgeMetricsFactory,
+                                  Function<ApiRequestMetrics, CompletableFuture<TResponse>> sender) {
+        this.policy = policy;
+        this.hedgingState = hedgingState;
+        this.primaryMetrics = primaryMetrics;
+        this.hedgeMetricsFactory = hedgeMetricsFactory;
+        this.sender = sender;
+        this.decidingMetrics = primaryMetrics;
+    }
+
+    public CompletableFuture<TResponse> send() {
+        hedgingState.recordRequest(policy);
+        result.whenComplete((response, e) -> {
+            if (result.isCancelled()) {
+                cancelParts(false);
+            }
+        });
+        sendPart(primaryMetrics, false);
+        CompletableFuture.delayedExecutor(hedgingState.getHedgeDelayMillis(policy), TimeUnit.MILLISECONDS).execute(() -> {
+            if (!result.isDone() && hedgingState.tryAcquireHedge()) {
+                sendPart(hedgeMetricsFactory.get(), true);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Метрики запроса, которым закончилась попытка: победившего или последнего неудачного
+     */
+    public ApiRequestMetrics getDecidingMetrics() {
+        return decidingMetrics;
+    }
+
+    private void sendPart(ApiRequestMetrics requestMetrics, boolean hedge) {
+        synchronized (this) {
+            if (result.isDone()) {
+                return;
+            }
+            pending++;
+        }
+        if (hedge) {
+            requestMetrics.hedged(HEDGE_SENT);
+        }
+        var startTime = System.nanoTime();
+        var part = sender.apply(requestMetrics);
+        synchronized (this) {
+            parts.add(part);
+            partMetrics.add(requestMetrics);
+            if (result.isDone() && !part.isDone()) {
+                requestMetrics.superseded();
+                part.cancel(false);
+            }
+        }
+        part.whenComplete((response, e) -> onPartCompleted(requestMetrics, hedge, System.nanoTime() - startTime, response, e));
+    }
+
+    private void onPartCompleted(ApiRequestMetrics requestMetrics, boolean hedge, long durationNanos, TResponse response, Throwable error) {
+        if (error == null) {
+            hedgingState.recordLatency(durationNanos);
+        }
+        synchronized (this) {
+            pending--;
+            if (result.isDone() || requestMetrics.isSuperseded()) {
+                return;
+            }
+            if (error == null) {
+                decidingMetrics = requestMetrics;
+                if (hedge) {
+                    requestMetrics.hedged(HEDGE_WON);
+                }
+                result.complete(response);
+                cancelParts(true);
+            } else if (pending == 0) {
+                decidingMetrics = requestMetrics;
+                result.completeExceptionally(error);
+            }
+        }
+    }
+
+    private synchronized void cancelParts(boolean superseded) {
+        for (var i = 0; i < parts.size(); i++) {
+            if (!parts.get(i).isDone()) {
+                if (superseded) {
+                    partMetrics.get(i).superseded();
+                }
+                parts.get(i).cancel(false);
+            }
+        }
+    }
+}
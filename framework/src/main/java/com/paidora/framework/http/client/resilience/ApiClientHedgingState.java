@@ -0,0 +1,67 @@
+package com.paidora.framework.http.client.resilience;
+
+import com.paidora.framework.http.client.core.ApiClientHedgingPolicy;
+
+import java.util.Arrays;
+
+/**
+ * Состояние хеджирования одного маршрута: окно недавних длительностей успешных запросов и бюджет хеджей.
+ * Бюджет - жетоны: каждый запрос добавляет maxHedgeRatio жетона, хедж забирает один, так что доля хеджей
+ * не превышает maxHedgeRatio, а накопить впрок можно не больше {@link #MAX_TOKENS}.
+ */
+public class ApiClientHedgingState {
+    public static final int WINDOW_SIZE = 128;
+    public static final double MAX_TOKENS = 10;
+    /**
+     * Перцентиль пересчитывается не чаще, чем через столько новых длительностей
+     */
+    private static final int RECALCULATE_EVERY = 16;
+
+    private final long[] latencies = new long[WINDOW_SIZE];
+    private int position;
+    private int count;
+    private int recordsSinceCalculation;
+    private double calculatedPercentile;
+    private long percentileMillis = -1;
+    private double tokens;
+
+    public synchronized void recordLatency(long durationNanos) {
+        latencies[position] = durationNanos;
+        position = (position + 1) % latencies.length;
+        count = Math.min(count + 1, latencies.length);
+        recordsSinceCalculation++;
+    }
+
+    /**
+     * @return сколько ждать ответа перед отправкой хеджа
+     */
+    public synchronized long getHedgeDelayMillis(ApiClientHedgingPolicy policy) {
+        if (count < Math.max(1, policy.getMinSamples())) {
+            return Math.max(policy.getMinDelayMillis(), policy.getInitialDelayMillis());
+        }
+        if (percentileMillis < 0 || recordsSinceCalculation >= RECALCULATE_EVERY || calculatedPercentile != policy.getDelayPercentile()) {
+            var sorted = Arrays.copyOf(latencies, count);
+            Arrays.sort(sorted);
+            var index = (int) Math.ceil(policy.getDelayPercentile() * count) - 1;
+            percentileMillis = sorted[Math.max(0, Math.min(count - 1, index))] / 1_000_000;
+            calculatedPercentile = policy.getDelayPercentile();
+            recordsSinceCalculation = 0;
+        }
+        return Math.max(policy.getMinDelayMillis(), percentileMillis);
+    }
+
+    public synchronized void recordRequest(ApiClientHedgingPolicy policy) {
+        tokens = Math.min(MAX_TOKENS, tokens + policy.getMaxHedgeRatio());
+    }
+
+    /**
+     * @return можно ли отправить хедж в пределах бюджета
+     */
+    public synchronized boolean tryAcquireHedge() {
+        if (tokens < 1) {
+            return false;
+        }
+        tokens -= 1;
+        return true;
+    }
+}
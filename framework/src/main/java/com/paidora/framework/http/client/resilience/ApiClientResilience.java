@@ -0,0 +1,141 @@
+package com.paidora.framework.http.client.resilience;
+
+import com.paidora.framework.exceptions.UnexpectedBehaviourException;
+import com.paidora.framework.http.client.core.ApiClientBodyType;
+import com.paidora.framework.http.client.core.ApiClientCircuitBreakerOptions;
+import com.paidora.framework.http.client.core.ApiClientHedgingPolicy;
+import com.paidora.framework.http.client.core.ApiClientHttpRequest;
+import com.paidora.framework.http.client.core.ApiClientRetryPolicy;
+import com.paidora.framework.http.client.metrics.ApiRequestMetrics;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Предохранители, состояния хеджирования и решения о повторах одного клиента. Состояние хранится по маршрутам
+ * (хост и путь с {id} из {@link ApiRequestMetrics}), маршрутов не больше заданных лимитов, остальные идут без него.
+ */
+@Slf4j
+public class ApiClientResilience {
+    public static final String CIRCUIT_OPEN = "circuit_open";
+
+    private final int maxCircuitBreakers;
+    private final int maxHedgingRoutes;
+    private final Map<String, ApiClientCircuitBreaker> circuitBreakers = new ConcurrentHashMap<>();
+    private final Map<String, ApiClientHedgingState> hedgingStates = new ConcurrentHashMap<>();
+
+    public ApiClientResilience(int maxCircuitBreakers, int maxHedgingRoutes) {
+        this.maxCircuitBreakers = maxCircuitBreakers;
+        this.maxHedgingRoutes = maxHedgingRoutes;
+    }
+
+    /**
+     * @return политика хеджирования, если запрос можно хеджировать, иначе null
+     */
+    public static ApiClientHedgingPolicy getHedgingPolicy(ApiClientHttpRequest<?, ?> request) {
+        var policy = request.getHedgingPolicy();
+        if (policy == null
+                || request.getResponseBodyType() == ApiClientBodyType.STREAM
+                || !ApiClientRetryPolicy.isIdempotent(request.getMethod(), request.getHeaders())) {
+            return null;
+        }
+        return policy;
+    }
+
+    /**
+     * @return состояние хеджирования маршрута или null, если маршрутов уже maxHedgingRoutes
+     */
+    public ApiClientHedgingState getHedgingState(ApiRequestMetrics requestMetrics) {
+        var key = requestMetrics.getHost() + " " + requestMetrics.getRoute();
+        var hedgingState = hedgingStates.get(key);
+        if (hedgingState == null) {
+            if (hedgingStates.size() >= maxHedgingRoutes) {
+                return null;
+            }
+            hedgingState = hedgingStates.computeIfAbsent(key, k -> new ApiClientHedgingState());
+        }
+        return hedgingState;
+    }
+
+    /**
+     * Предохранитель маршрута запроса, если он включен. Настройки предохранителя берутся из первого запроса маршрута
+     * и дальше не меняются, настройки последующих запросов только включают его
+     *
+     * @param defaultOptions настройки для запроса без своих, null - без предохранителя
+     * @throws UnexpectedBehaviourException {@link #CIRCUIT_OPEN}, если предохранитель не пропускает запрос
+     */
+    public ApiClientCircuitBreaker acquireCircuitBreaker(ApiClientHttpRequest<?, ?> request,
+                                                         ApiClientCircuitBreakerOptions defaultOptions,
+                                                         ApiRequestMetrics requestMetrics) throws UnexpectedBehaviourException {
+        var options = request.getCircuitBreakerOptions() != null ? request.getCircuitBreakerOptions() : defaultOptions;
+        if (options == null) {
+            return null;
+        }
+        var key = requestMetrics.getHost() + " " + requestMetrics.getRoute();
+        var circuitBreaker = circuitBreakers.get(key);
+        if (circuitBreaker == null) {
+            if (circuitBreakers.size() >= maxCircuitBreakers) {
+                return null;
+            }
+            // предохранитель живет дольше запроса, поэтому слушатель держит только метрики и маршрут, а не метрики запроса
+            var metrics = requestMetrics.getMetrics();
+            var host = requestMetrics.getHost();
+            var route = requestMetrics.getRoute();
+            circuitBreaker = circuitBreakers.computeIfAbsent(key, k -> new ApiClientCircuitBreaker(options, state -> {
+                log.warn("Circuit breaker " + k + " is " + state);
+                try {
+                    metrics.recordCircuitBreakerState(host, route, state);
+                } catch (RuntimeException e) {
+                    log.warn("Can't record api client metrics", e);
+                }
+            }));
+        }
+        if (!circuitBreaker.tryAcquire()) {
+            requestMetrics.rejected(CIRCUIT_OPEN);
+            throw new UnexpectedBehaviourException(CIRCUIT_OPEN);
+        }
+        return circuitBreaker;
+    }
+
+    /**
+     * Сообщает результат попытки предохранителю и решает, нужен ли повтор
+     *
+     * @param defaultRetryPolicy политика для запроса без своей, null - без повторов
+     * @return задержка перед повтором или -1
+     */
+    public long onAttemptCompleted(ApiClientHttpRequest<?, ?> request,
+                                   ApiClientRetryPolicy defaultRetryPolicy,
+                                   int attempt,
+                                   ApiClientCircuitBreaker circuitBreaker,
+                                   ApiRequestMetrics requestMetrics,
+                                   Throwable error) {
+        if (error instanceof CompletionException && error.getCause() != null) {
+            error = error.getCause();
+        }
+        var status = requestMetrics.getStatus();
+        var cause = requestMetrics.getFailure() != null ? requestMetrics.getFailure() : error;
+        if (circuitBreaker != null) {
+            if (error instanceof CancellationException) {
+                circuitBreaker.release();
+            } else {
+                // RuntimeException, не завернутое в UnexpectedBehaviourException, - ошибка самого вызова
+                circuitBreaker.onResult(error != null && (!(error instanceof UnexpectedBehaviourException)
+                        || ApiClientCircuitBreaker.isFailure(status, cause)));
+            }
+        }
+        var policy = request.getRetryPolicy() != null ? request.getRetryPolicy() : defaultRetryPolicy;
+        if (error == null || policy == null) {
+            return -1;
+        }
+        var retryDelay = policy.getRetryDelayMillis(attempt, request.getMethod(), request.getHeaders(), status, cause);
+        if (retryDelay >= 0) {
+            var reason = status != 0 ? "http:" + status : cause.getClass().getSimpleName();
+            requestMetrics.retried(reason);
+            log.info("Retrying " + request.getMethod() + " " + request.getUrl() + " in " + retryDelay + " ms after attempt " + attempt + ": " + reason);
+        }
+        return retryDelay;
+    }
+}
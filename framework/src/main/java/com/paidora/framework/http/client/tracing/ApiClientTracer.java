@@ -0,0 +1,100 @@
+package com.paidora.framework.http.client.tracing;
+
+import com.paidora.framework.http.client.core.ApiClientHttpRequest;
+import lombok.Getter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Трассировка запросов api клиентов в отдельный логгер {@link #TRACE_LOGGER}, который можно направить в свой,
+ * в том числе асинхронный, аппендер. Решение о выборке принимается в начале запроса, а сообщение строится
+ * только при записи в лог, так что для невыбранных успешных запросов трассировка стоит пару ссылок.
+ */
+public class ApiClientTracer {
+    public static final String TRACE_LOGGER = "com.paidora.framework.http.client.trace";
+    static final String REDACTED = "***";
+    private static final Logger TRACE_LOG = LoggerFactory.getLogger(TRACE_LOGGER);
+
+    @Getter
+    private final ApiClientTracingOptions options;
+    private final Set<String> redactedHeaders;
+    private final Pattern redactedFieldsPattern;
+
+    public ApiClientTracer(ApiClientTracingOptions options) {
+        this.options = options;
+        this.redactedHeaders = options.getRedactedHeaders().stream()
+                .map(header -> header.toLowerCase(Locale.ROOT))
+                .collect(Collectors.toUnmodifiableSet());
+        if (options.getRedactedFields().isEmpty()) {
+            this.redactedFieldsPattern = null;
+        } else {
+            var fields = options.getRedactedFields().stream().map(Pattern::quote).collect(Collectors.joining("|", "(?:", ")"));
+            // "field": "value" или "field": 123, <field>value</field>, field=value
+            this.redactedFieldsPattern = Pattern.compile(
+                    "(\"" + fields + "\"\\s*:\\s*)(\"(?:[^\"\\\\]|\\\\.)*\"|[^,}\\]\\s]+)"
+                            + "|(<(" + fields + ")(?:\\s[^>]*)?>)[^<]*(</\\4>)"
+                            + "|((?:^|[&?])" + fields + "=)[^&\\s]*",
+                    Pattern.CASE_INSENSITIVE);
+        }
+    }
+
+    public ApiRequestTrace start(ApiClientHttpRequest<?, ?> request) {
+        var enabled = TRACE_LOG.isInfoEnabled();
+        var sampled = enabled && options.getSampleRate() > 0
+                && (options.getSampleRate() >= 1 || ThreadLocalRandom.current().nextDouble() < options.getSampleRate());
+        return new ApiRequestTrace(this, request, enabled, sampled);
+    }
+
+    void write(ApiRequestTrace trace) {
+        TRACE_LOG.info("{}", trace);
+    }
+
+    boolean shouldWrite(boolean enabled, boolean sampled, boolean failed) {
+        return sampled || enabled && failed && options.isTraceFailures();
+    }
+
+    String redactHeader(String name, String value) {
+        return redactedHeaders.contains(name.toLowerCase(Locale.ROOT)) ? REDACTED : value;
+    }
+
+    /**
+     * Маскирует поля и обрезает тело до maxBodyLength. Маскируется немного больше, чем выводится,
+     * чтобы значение на границе обрезки не попало в лог
+     */
+    String formatBody(String body) {
+        var maxLength = options.getMaxBodyLength();
+        var text = body.length() > maxLength * 2L ? body.substring(0, maxLength * 2) : body;
+        if (redactedFieldsPattern != null) {
+            text = redactFields(text);
+        }
+        if (body.length() > maxLength) {
+            return text.substring(0, Math.min(maxLength, text.length())) + "... (" + body.length() + " chars)";
+        }
+        return text;
+    }
+
+    private String redactFields(String text) {
+        var matcher = redactedFieldsPattern.matcher(text);
+        var result = new StringBuilder(text.length());
+        while (matcher.find()) {
+            String replacement;
+            if (matcher.group(1) != null) {
+                replacement = matcher.group(1) + "\"" + REDACTED + "\"";
+            } else if (matcher.group(3) != null) {
+                replacement = matcher.group(3) + REDACTED + matcher.group(5);
+            } else {
+                replacement = matcher.group(6) + REDACTED;
+            }
+            matcher.appendReplacement(result, Matcher.quoteReplacement(replacement));
+        }
+        matcher.appendTail(result);
+        return result.toString();
+    }
+}
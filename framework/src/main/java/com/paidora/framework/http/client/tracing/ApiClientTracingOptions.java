@@ -0,0 +1,36 @@
+package com.paidora.framework.http.client.tracing;
+
+import lombok.*;
+
+import java.util.List;
+import java.util.Set;
+
+/**
+ * defaults:
+ * sampleRate:          1.0 - доля успешных запросов, которые пишутся в лог трассировки целиком
+ * traceFailures:       true - неуспешные запросы пишутся всегда, независимо от sampleRate
+ * maxBodyLength:       4096 символов тела запроса и ответа, остальное обрезается
+ * redactedHeaders:     Authorization, Proxy-Authorization, Cookie, Set-Cookie - значения заменяются на ***
+ * redactedFields:      password, secret, cvv, cvc - значения полей в JSON, XML и form телах заменяются на ***
+ */
+@Getter
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@ToString
+public class ApiClientTracingOptions {
+    public static final int DEFAULT_MAX_BODY_LENGTH = 4096;
+    public static final Set<String> DEFAULT_REDACTED_HEADERS = Set.of("Authorization", "Proxy-Authorization", "Cookie", "Set-Cookie");
+    public static final List<String> DEFAULT_REDACTED_FIELDS = List.of("password", "secret", "cvv", "cvc");
+
+    @Builder.Default
+    private double sampleRate = 1.0;
+    @Builder.Default
+    private boolean traceFailures = true;
+    @Builder.Default
+    private int maxBodyLength = DEFAULT_MAX_BODY_LENGTH;
+    @Builder.Default
+    private Set<String> redactedHeaders = DEFAULT_REDACTED_HEADERS;
+    @Builder.Default
+    private List<String> redactedFields = DEFAULT_REDACTED_FIELDS;
+}
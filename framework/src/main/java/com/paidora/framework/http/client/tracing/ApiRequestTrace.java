@@ -0,0 +1,132 @@
+package com.paidora.framework.http.client.tracing;
+
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.paidora.framework.exceptions.UnexpectedBehaviourException;
+import com.paidora.framework.http.client.core.ApiClientHttpRequest;
+import org.apache.hc.core5.http.HttpRequest;
+import org.apache.hc.core5.http.HttpResponse;
+import org.apache.hc.core5.http.MessageHeaders;
+
+import java.util.concurrent.CompletionException;
+
+/**
+ * Трасса одного запроса: по ходу запроса сохраняются только ссылки на запрос, ответ и тела,
+ * текст строится в {@link #toString()} при записи в лог
+ */
+public class ApiRequestTrace {
+    private final ApiClientTracer tracer;
+    private final ApiClientHttpRequest<?, ?> request;
+    private final boolean enabled;
+    private final boolean sampled;
+    private final long startNanos = System.nanoTime();
+    private volatile HttpRequest httpRequest;
+    private volatile String requestBody;
+    private volatile ObjectWriter requestWriter;
+    private volatile Object requestValue;
+    private volatile HttpResponse httpResponse;
+    private volatile String responseBody;
+    private volatile String responseBodyInfo;
+    private volatile long durationNanos;
+    private volatile Throwable error;
+
+    ApiRequestTrace(ApiClientTracer tracer, ApiClientHttpRequest<?, ?> request, boolean enabled, boolean sampled) {
+        this.tracer = tracer;
+        this.request = request;
+        this.enabled = enabled;
+        this.sampled = sampled;
+    }
+
+    public void request(HttpRequest httpRequest, String body) {
+        this.httpRequest = httpRequest;
+        this.requestBody = body;
+    }
+
+    /**
+     * Тело, которое сериализуется потоком, в лог сериализуется заново и только если трасса пишется
+     */
+    public void request(HttpRequest httpRequest, ObjectWriter writer, Object value) {
+        this.httpRequest = httpRequest;
+        this.requestWriter = writer;
+        this.requestValue = value;
+    }
+
+    public void response(HttpResponse httpResponse) {
+        this.httpResponse = httpResponse;
+    }
+
+    public void responseBody(String body) {
+        this.responseBody = body;
+    }
+
+    /**
+     * Описание тела, которое не читалось в строку, например длина BLOB
+     */
+    public void responseBodyInfo(String info) {
+        this.responseBodyInfo = info;
+    }
+
+    public void finish(Throwable error) {
+        if (error instanceof CompletionException && error.getCause() != null) {
+            error = error.getCause();
+        }
+        this.durationNanos = System.nanoTime() - startNanos;
+        this.error = error;
+        if (tracer.shouldWrite(enabled, sampled, error != null)) {
+            tracer.write(this);
+        }
+    }
+
+    @Override
+    public String toString() {
+        var text = new StringBuilder(256);
+        text.append(request.getMethod()).append(' ').append(request.getUrl());
+        var response = httpResponse;
+        if (response != null) {
+            text.append(" -> ").append(response.getCode());
+            if (response.getReasonPhrase() != null) {
+                text.append(' ').append(response.getReasonPhrase());
+            }
+        }
+        text.append(" in ").append(durationNanos / 1_000_000).append(" ms");
+        var failure = error;
+        if (failure != null) {
+            text.append(" failed: ").append(failure instanceof UnexpectedBehaviourException
+                    ? failure.getMessage()
+                    : failure.getClass().getSimpleName() + ": " + failure.getMessage());
+        }
+        if (httpRequest != null) {
+            appendHeaders(text, "> ", httpRequest);
+            var body = getRequestBody();
+            if (body != null) {
+                text.append("\n> ").append(tracer.formatBody(body));
+            }
+        }
+        if (response != null) {
+            appendHeaders(text, "< ", response);
+            if (responseBody != null) {
+                text.append("\n< ").append(tracer.formatBody(responseBody));
+            } else if (responseBodyInfo != null) {
+                text.append("\n< ").append(responseBodyInfo);
+            }
+        }
+        return text.toString();
+    }
+
+    private String getRequestBody() {
+        if (requestBody != null || requestWriter == null) {
+            return requestBody;
+        }
+        try {
+            return requestWriter.writeValueAsString(requestValue);
+        } catch (Exception e) {
+            return "<body serialization failed: " + e.getMessage() + ">";
+        }
+    }
+
+    private void appendHeaders(StringBuilder text, String prefix, MessageHeaders message) {
+        for (var header : message.getHeaders()) {
+            text.append('\n').append(prefix).append(header.getName()).append(": ")
+                    .append(tracer.redactHeader(header.getName(), header.getValue()));
+        }
+    }
+}
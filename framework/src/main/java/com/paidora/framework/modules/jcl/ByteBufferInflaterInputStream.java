@@ -0,0 +1,83 @@
+package com.paidora.framework.modules.jcl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Поток, который распаковывает deflate-данные записи прямо из буфера со снапшотом джарника.
+ * В конце данных размер и CRC-32 сверяются с центральным каталогом, как при распаковке записи целиком
+ */
+class ByteBufferInflaterInputStream extends InputStream {
+    private final Inflater inflater = new Inflater(true);
+    private final CRC32 crc = new CRC32();
+    private final String entryName;
+    private final long size;
+    private final long expectedCrc;
+    private boolean closed;
+
+    ByteBufferInflaterInputStream(ByteBuffer compressed, String entryName, long size, long expectedCrc) {
+        this.entryName = entryName;
+        this.size = size;
+        this.expectedCrc = expectedCrc;
+        inflater.setInput(compressed);
+    }
+
+    @Override
+    public int read() throws IOException {
+        var b = new byte[1];
+        return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        if (len == 0) {
+            return 0;
+        }
+        try {
+            int n;
+            while ((n = inflater.inflate(b, off, len)) == 0) {
+                if (inflater.finished()) {
+                    verify();
+                    return -1;
+                }
+                if (inflater.needsInput() || inflater.needsDictionary()) {
+                    throw new ZipException("Unexpected end of deflated data for entry " + entryName);
+                }
+            }
+            crc.update(b, off, n);
+            return n;
+        } catch (DataFormatException e) {
+            throw new ZipException("Invalid deflated data for entry " + entryName + ": " + e.getMessage());
+        }
+    }
+
+    private void verify() throws ZipException {
+        if (inflater.getBytesWritten() != size) {
+            throw new ZipException("Invalid size for entry " + entryName + ": " + inflater.getBytesWritten() + " instead of " + size);
+        }
+        if (crc.getValue() != expectedCrc) {
+            throw new ZipException("Invalid CRC for entry " + entryName);
+        }
+    }
+
+    @Override
+    public int available() {
+        return closed || inflater.finished() ? 0 : 1;
+    }
+
+    @Override
+    public void close() {
+        if (!closed) {
+            closed = true;
+            inflater.end();
+        }
+    }
+}
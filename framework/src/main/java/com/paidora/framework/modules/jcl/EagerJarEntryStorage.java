@@ -0,0 +1,171 @@
+package com.paidora.framework.modules.jcl;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.jar.JarEntry;
+import java.util.jar.JarInputStream;
+
+/**
+ * Хранилище, которое при создании распаковывает в память все записи джарника
+ */
+@Slf4j
+class EagerJarEntryStorage implements IJarEntryStorage {
+    private static final int BUFFER_SIZE = 8192;
+
+    private final Map<String, byte[]> cache = new ConcurrentHashMap<>();
+    private final List<SharedEntryStore.SharedEntry> sharedEntries = new ArrayList<>();
+    private final boolean deduplicate;
+    private volatile NavigableSet<String> entryNames;
+    private int nestedJars;
+
+    EagerJarEntryStorage(InputStream jarInputStream, InMemoryJarStorageOptions options) throws IOException {
+        this.deduplicate = options.isDeduplicateEntries();
+        loadJar(jarInputStream, options.getNestedLibDirs());
+        this.entryNames = Collections.unmodifiableNavigableSet(new TreeSet<>(cache.keySet()));
+    }
+
+    private void loadJar(InputStream fis, List<String> nestedLibDirs) throws IOException {
+        var nestedJarNames = new ArrayList<String>();
+        String name;
+        byte[] b = new byte[BUFFER_SIZE];
+        int len = 0;
+        try (var jis = new JarInputStream(fis)) {
+            JarEntry jarEntry;
+            while ((jarEntry = jis.getNextJarEntry()) != null) {
+                name = "/" + jarEntry.getName();
+
+                if (jarEntry.isDirectory()) {
+                    cache.put(name, new byte[]{});
+                    continue;
+                }
+
+                if (cache.containsKey(name)) {
+                    log.debug("Class/Resource " + name + " already loaded; ignoring entry...");
+                    continue;
+                }
+
+                try (var out = new ByteArrayOutputStream()) {
+                    while ((len = jis.read(b)) > 0) {
+                        out.write(b, 0, len);
+                    }
+
+                    log.debug("Jar entry = " + name);
+
+                    cache.put(name, share(out.toByteArray()));
+                }
+                if (InMemoryJarStorageOptions.isNestedJar(name, nestedLibDirs)) {
+                    nestedJarNames.add(name);
+                }
+            }
+            var manifest = jis.getManifest();
+            if (manifest != null) {
+                try (var out = new ByteArrayOutputStream()) {
+                    manifest.write(out);
+                    cache.put("/META-INF/MANIFEST.MF", out.toByteArray());
+                }
+            }
+        }
+        for (var nestedJarName : nestedJarNames) {
+            loadNestedJar(nestedJarName);
+        }
+    }
+
+    /**
+     * Записи вложенного джарника не перетирают записи самого плагина и ранее загруженных вложенных джарников
+     */
+    private void loadNestedJar(String nestedJarName) {
+        byte[] b = new byte[BUFFER_SIZE];
+        int len;
+        try (var jis = new JarInputStream(new ByteArrayInputStream(cache.get(nestedJarName)))) {
+            JarEntry jarEntry;
+            while ((jarEntry = jis.getNextJarEntry()) != null) {
+                var name = "/" + jarEntry.getName();
+                if (cache.containsKey(name)) {
+                    continue;
+                }
+                if (jarEntry.isDirectory()) {
+                    cache.put(name, new byte[]{});
+                    continue;
+                }
+                try (var out = new ByteArrayOutputStream()) {
+                    while ((len = jis.read(b)) > 0) {
+                        out.write(b, 0, len);
+                    }
+                    cache.put(name, share(out.toByteArray()));
+                }
+            }
+            nestedJars++;
+            log.debug("Loaded nested jar = " + nestedJarName);
+        } catch (IOException e) {
+            log.warn("Can't load nested jar " + nestedJarName + ", it will be available only as a resource: " + e.getMessage());
+        }
+    }
+
+    private byte[] share(byte[] data) {
+        if (!deduplicate || data.length == 0) {
+            return data;
+        }
+        var sharedEntry = SharedEntryStore.getInstance().acquire(ByteBuffer.wrap(data), false);
+        sharedEntries.add(sharedEntry);
+        return sharedEntry.getData().array();
+    }
+
+    @Override
+    public boolean containsEntry(String name) {
+        return cache.containsKey(name);
+    }
+
+    @Override
+    public InputStream openEntry(String name) {
+        var data = cache.get(name);
+        return data != null ? new ByteArrayInputStream(data) : null;
+    }
+
+    @Override
+    public <T> T readEntry(String name, IEntryBufferReader<T> reader) {
+        var data = cache.get(name);
+        return data != null ? reader.read(ByteBuffer.wrap(data)) : null;
+    }
+
+    @Override
+    public NavigableSet<String> getEntryNames() {
+        return entryNames;
+    }
+
+    @Override
+    public InMemoryJarStorageStats getStats() {
+        var storedBytes = 0L;
+        for (var data : cache.values()) {
+            storedBytes += data.length;
+        }
+        return InMemoryJarStorageStats.builder()
+                .storageMode(InMemoryJarStorageMode.EAGER)
+                .entries(cache.size())
+                .nestedJars(nestedJars)
+                .storedBytes(storedBytes)
+                .inflatedBytes(storedBytes)
+                .build();
+    }
+
+    @Override
+    public synchronized void close() {
+        cache.clear();
+        entryNames = Collections.emptyNavigableSet();
+        for (var sharedEntry : sharedEntries) {
+            SharedEntryStore.getInstance().release(sharedEntry);
+        }
+        sharedEntries.clear();
+    }
+}
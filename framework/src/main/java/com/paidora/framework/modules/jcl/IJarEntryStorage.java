@@ -0,0 +1,41 @@
+package com.paidora.framework.modules.jcl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.NavigableSet;
+
+/**
+ * Хранилище содержимого джарника для {@link InMemoryJarClassLoader}.
+ * Имена записей всегда начинаются с "/", директории заканчиваются на "/".
+ */
+public interface IJarEntryStorage {
+
+    boolean containsEntry(String name);
+
+    /**
+     * @return поток с содержимым записи или null, если такой записи нет
+     */
+    InputStream openEntry(String name) throws IOException;
+
+    /**
+     * Отдает содержимое записи буфером без промежуточных копий. Буфер валиден только внутри reader.
+     *
+     * @return результат reader или null, если такой записи нет
+     */
+    <T> T readEntry(String name, IEntryBufferReader<T> reader) throws IOException;
+
+    /**
+     * @return отсортированные имена записей, по которым можно быстро выбрать записи с общим префиксом
+     */
+    NavigableSet<String> getEntryNames();
+
+    InMemoryJarStorageStats getStats();
+
+    void close();
+
+    @FunctionalInterface
+    interface IEntryBufferReader<T> {
+        T read(ByteBuffer data);
+    }
+}
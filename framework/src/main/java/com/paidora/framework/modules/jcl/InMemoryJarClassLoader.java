@@ -3,110 +3,267 @@ package com.paidora.framework.modules.jcl;
 import lombok.extern.slf4j.Slf4j;
 
 import java.io.*;
+import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLClassLoader;
 import java.net.URLConnection;
 import java.net.URLStreamHandler;
-import java.util.Map;
-import java.util.Objects;
-import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
+import java.nio.ByteBuffer;
+import java.security.CodeSigner;
+import java.security.CodeSource;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Supplier;
-import java.util.jar.JarEntry;
-import java.util.jar.JarInputStream;
+import java.util.jar.Manifest;
 
 
 /**
  * Класслоадер из джарника, который хранит его в памяти, таким образом не блокируя операции с файлом на урвоне ОС
+ * <p>
+ * Способ хранения содержимого задается через {@link InMemoryJarStorageOptions}
+ * <p>
+ * Класслоадер зарегистрирован как parallel capable, блокировка при загрузке идет по имени класса.
+ * Наследники тоже должны вызывать {@link ClassLoader#registerAsParallelCapable()} в своем статическом блоке,
+ * иначе они будут блокироваться на самом класслоадере.
+ * <p>
+ * Классы определяются прямо из буфера хранилища через {@link #defineClass(String, ByteBuffer, CodeSource)},
+ * без копирования байткода в промежуточный массив.
  */
 @Slf4j
 public class InMemoryJarClassLoader extends URLClassLoader {
+    static {
+        ClassLoader.registerAsParallelCapable();
+    }
 
-    private final Map<String, byte[]> cache;
-    private final int BUFFER_SIZE = 8192;
+    private static final int MISSING_CLASSES_CACHE_SIZE = 4096;
+    private static final long MISSING_CLASSES_TTL_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    private final IJarEntryStorage storage;
+    private final Set<String> packageNames;
+    private final URLStreamHandler urlStreamHandler;
+    private final URL cacheURL;
+    private final CodeSource codeSource;
+    private final Manifest manifest;
+    /**
+     * Имя класса -> время, когда его не нашли
+     */
+    private final Map<String, Long> missingClasses = Collections.synchronizedMap(new LinkedHashMap<>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+            return size() > MISSING_CLASSES_CACHE_SIZE;
+        }
+    });
 
     public InMemoryJarClassLoader(File jarFile, ClassLoader parent) throws IOException {
+        this(jarFile, parent, InMemoryJarStorageOptions.of(InMemoryJarStorageMode.EAGER));
+    }
+
+    public InMemoryJarClassLoader(File jarFile, ClassLoader parent, InMemoryJarStorageOptions options) throws IOException {
         this(() -> {
             try {
                 return new FileInputStream(jarFile);
             } catch (FileNotFoundException e) {
                 throw new RuntimeException(e);
             }
-        }, parent);
+        }, parent, options);
     }
 
     public InMemoryJarClassLoader(byte[] jarBytes, ClassLoader parent) throws IOException {
-        this(() -> new ByteArrayInputStream(jarBytes), parent);
+        this(jarBytes, parent, InMemoryJarStorageOptions.of(InMemoryJarStorageMode.EAGER));
+    }
+
+    public InMemoryJarClassLoader(byte[] jarBytes, ClassLoader parent, InMemoryJarStorageOptions options) throws IOException {
+        this(() -> new ByteArrayInputStream(jarBytes), parent, options);
     }
 
     protected InMemoryJarClassLoader(Supplier<InputStream> getInputStream, ClassLoader parent) throws IOException {
+        this(getInputStream, parent, InMemoryJarStorageOptions.of(InMemoryJarStorageMode.EAGER));
+    }
+
+    protected InMemoryJarClassLoader(Supplier<InputStream> getInputStream, ClassLoader parent, InMemoryJarStorageOptions options) throws IOException {
         super(new URL[]{}, parent);
-        cache = new ConcurrentHashMap<>();
-        var cacheURL = new URL("x-mem-cache",
+        storage = loadJar(getInputStream, options);
+        packageNames = indexPackages(storage.getEntryNames());
+        urlStreamHandler = new InMemoryJarURLStreamHandler(storage);
+        cacheURL = new URL("x-mem-cache",
                 null,
                 -1,
                 "/",
-                new InMemoryJarURLStreamHandler(cache));
+                urlStreamHandler);
+        codeSource = new CodeSource(cacheURL, (CodeSigner[]) null);
+        manifest = readManifest(storage);
         super.addURL(cacheURL);
-        loadJar(getInputStream);
     }
 
-    private void loadJar(Supplier<InputStream> getInputStream) throws IOException {
-        String name;
-        byte[] b = new byte[BUFFER_SIZE];
-        int len = 0;
+    private static IJarEntryStorage loadJar(Supplier<InputStream> getInputStream, InMemoryJarStorageOptions options) throws IOException {
+        if (options.getStorageMode() != InMemoryJarStorageMode.EAGER) {
+            ByteBuffer jarBuffer;
+            try (var fis = getInputStream.get()) {
+                jarBuffer = readSnapshot(fis, options.isOffHeap());
+            }
+            try {
+                return new LazyJarEntryStorage(jarBuffer, options);
+            } catch (IOException e) {
+                log.warn("Can't index jar central directory, loading all entries eagerly: " + e.getMessage());
+                var jarBytes = new byte[jarBuffer.remaining()];
+                jarBuffer.get(jarBytes);
+                return new EagerJarEntryStorage(new ByteArrayInputStream(jarBytes), options);
+            }
+        }
         try (var fis = getInputStream.get()) {
-            try (var jis = new JarInputStream(fis)) {
-                JarEntry jarEntry;
-                while ((jarEntry = jis.getNextJarEntry()) != null) {
-                    name = "/" + jarEntry.getName();
-
-                    if (jarEntry.isDirectory()) {
-                        cache.put(name, new byte[]{});
-                        continue;
-                    }
+            return new EagerJarEntryStorage(fis, options);
+        }
+    }
 
-                    if (cache.containsKey(name)) {
-                        log.debug("Class/Resource " + name + " already loaded; ignoring entry...");
-                        continue;
-                    }
+    /**
+     * Снапшот вне кучи файла читается через канал напрямую в direct буфер, без промежуточного массива
+     */
+    private static ByteBuffer readSnapshot(InputStream is, boolean offHeap) throws IOException {
+        if (!offHeap) {
+            return ByteBuffer.wrap(is.readAllBytes());
+        }
+        if (is instanceof FileInputStream) {
+            var channel = ((FileInputStream) is).getChannel();
+            var size = channel.size() - channel.position();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Jar is too large: " + size);
+            }
+            var buffer = ByteBuffer.allocateDirect((int) size);
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+            }
+            return buffer.flip();
+        }
+        var bytes = is.readAllBytes();
+        return ByteBuffer.allocateDirect(bytes.length).put(bytes).flip();
+    }
 
-                    try (var out = new ByteArrayOutputStream()) {
-                        while ((len = jis.read(b)) > 0) {
-                            out.write(b, 0, len);
-                        }
+    private static Manifest readManifest(IJarEntryStorage storage) {
+        try (var is = storage.openEntry("/META-INF/MANIFEST.MF")) {
+            return is != null ? new Manifest(is) : null;
+        } catch (IOException e) {
+            log.warn("Can't read jar manifest: " + e.getMessage());
+            return null;
+        }
+    }
 
-                        log.debug("Jar entry = " + name);
+    private static Set<String> indexPackages(Set<String> entryNames) {
+        var result = new HashSet<String>();
+        for (var entryName : entryNames) {
+            if (entryName.endsWith(".class")) {
+                var slash = entryName.lastIndexOf('/');
+                result.add(slash > 0 ? entryName.substring(1, slash).replace('/', '.') : "");
+            }
+        }
+        return Collections.unmodifiableSet(result);
+    }
 
-                        cache.put(name, out.toByteArray());
-                    }
+    /**
+     * Сначала ищем класс в своем джарнике, потом у родителя. В джарник идем только если в нем есть такой пакет и
+     * такой файл класса, чтобы не бросать и не ловить ClassNotFoundException на каждый класс родителя.
+     * Если файл класса есть, но прочитать его не удалось, класс ищется у родителя.
+     * Классы, которых нет ни у нас, ни у родителя, запоминаются в ограниченном по размеру кеше на минуту,
+     * так как родитель может получить их позже; сбросить кеш сразу можно через {@link #clearMissingClasses()}.
+     */
+    @Override
+    protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+        synchronized (getClassLoadingLock(name)) {
+            var loadedClass = findLoadedClass(name);
+            if (loadedClass == null) {
+                if (isMissingClass(name)) {
+                    throw new MissingClassException(name);
                 }
-                var manifest = jis.getManifest();
-                if (manifest != null) {
-                    try (var out = new ByteArrayOutputStream()) {
-                        manifest.write(out);
-                        cache.put("/META-INF/MANIFEST.MF", out.toByteArray());
+                if (isOwnClass(name)) {
+                    try {
+                        loadedClass = findClass(name);
+                    } catch (ClassNotFoundException e) {
+                        log.warn("Can't read class " + name + " from jar, loading it from parent: " + e.getMessage());
+                        loadedClass = loadClassFromParent(name);
+                    }
+                } else {
+                    try {
+                        loadedClass = loadClassFromParent(name);
+                    } catch (ClassNotFoundException e) {
+                        missingClasses.put(name, System.nanoTime());
+                        throw e;
                     }
                 }
             }
+
+            if (resolve) {
+                resolveClass(loadedClass);
+            }
+            return loadedClass;
+        }
+    }
+
+    private boolean isMissingClass(String name) {
+        var missingSince = missingClasses.get(name);
+        if (missingSince == null) {
+            return false;
+        }
+        if (System.nanoTime() - missingSince < MISSING_CLASSES_TTL_NANOS) {
+            return true;
         }
+        missingClasses.remove(name, missingSince);
+        return false;
+    }
+
+    /**
+     * Забывает классы, которые не были найдены, например после того, как родитель получил новые классы
+     */
+    public void clearMissingClasses() {
+        missingClasses.clear();
+    }
+
+    private boolean isOwnClass(String name) {
+        var dot = name.lastIndexOf('.');
+        var packageName = dot > 0 ? name.substring(0, dot) : "";
+        return packageNames.contains(packageName) && storage.containsEntry("/" + name.replace('.', '/') + ".class");
     }
 
     @Override
-    protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
-        var loadedClass = findLoadedClass(name);
-        if (loadedClass == null) {
-            try {
-                loadedClass = findClass(name);
-            } catch (ClassNotFoundException e) {
-                loadedClass = super.loadClass(name, resolve);
+    protected Class<?> findClass(String name) throws ClassNotFoundException {
+        Class<?> result;
+        try {
+            result = storage.readEntry("/" + name.replace('.', '/') + ".class", data -> defineClass(name, data));
+        } catch (IOException e) {
+            throw new ClassNotFoundException(name, e);
+        }
+        if (result == null) {
+            throw new ClassNotFoundException(name);
+        }
+        return result;
+    }
+
+    private Class<?> defineClass(String name, ByteBuffer data) {
+        var dot = name.lastIndexOf('.');
+        if (dot > 0) {
+            definePackageIfAbsent(name.substring(0, dot));
+        }
+        return defineClass(name, data, codeSource);
+    }
+
+    private void definePackageIfAbsent(String packageName) {
+        if (getDefinedPackage(packageName) != null) {
+            return;
+        }
+        try {
+            if (manifest != null) {
+                definePackage(packageName, manifest, cacheURL);
+            } else {
+                definePackage(packageName, null, null, null, null, null, null, null);
             }
+        } catch (IllegalArgumentException e) {
+            // пакет уже определен параллельно загружаемым классом
         }
+    }
 
-        if (resolve) {
-            resolveClass(loadedClass);
+    private Class<?> loadClassFromParent(String name) throws ClassNotFoundException {
+        var parent = getParent();
+        if (parent != null) {
+            return parent.loadClass(name);
         }
-        return loadedClass;
+        return super.loadClass(name, false);
     }
 
     @Override
@@ -119,27 +276,79 @@ public class InMemoryJarClassLoader extends URLClassLoader {
         return url;
     }
 
+    /**
+     * Наличие ресурса проверяется по индексу хранилища. URLClassLoader для этого открывает поток записи,
+     * что для LAZY/COMPRESSED означает распаковку всей записи ради одной проверки.
+     */
+    @Override
+    public URL findResource(String name) {
+        var entryName = "/" + name;
+        if (!storage.containsEntry(entryName)) {
+            return null;
+        }
+        try {
+            return new URL(cacheURL.getProtocol(), null, -1, entryName, urlStreamHandler);
+        } catch (MalformedURLException e) {
+            log.warn("Can't create URL for resource " + name + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    @Override
+    public Enumeration<URL> findResources(String name) {
+        var url = findResource(name);
+        return url != null ? Collections.enumeration(List.of(url)) : Collections.emptyEnumeration();
+    }
+
+    public InMemoryJarStorageStats getStorageStats() {
+        return storage.getStats();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            super.close();
+        } finally {
+            missingClasses.clear();
+            storage.close();
+        }
+    }
+
+    /**
+     * Исключение для классов из кеша отсутствующих, без стектрейса, так как его построение и есть основная цена
+     */
+    private static class MissingClassException extends ClassNotFoundException {
+        MissingClassException(String name) {
+            super(name);
+        }
+
+        @Override
+        public synchronized Throwable fillInStackTrace() {
+            return this;
+        }
+    }
+
     protected class InMemoryJarURLStreamHandler extends URLStreamHandler {
 
-        private final Map<String, byte[]> cache;
+        private final IJarEntryStorage storage;
 
-        public InMemoryJarURLStreamHandler(Map<String, byte[]> cache) {
-            this.cache = cache;
+        public InMemoryJarURLStreamHandler(IJarEntryStorage storage) {
+            this.storage = storage;
         }
 
         @Override
         protected URLConnection openConnection(URL url) {
-            return new InMemoryJarURLConnection(url, cache);
+            return new InMemoryJarURLConnection(url, storage);
         }
 
     }
 
     protected class InMemoryJarURLConnection extends URLConnection {
-        private final Map<String, byte[]> cache;
+        private final IJarEntryStorage storage;
 
-        public InMemoryJarURLConnection(URL url, Map<String, byte[]> cache) {
+        public InMemoryJarURLConnection(URL url, IJarEntryStorage storage) {
             super(url);
-            this.cache = cache;
+            this.storage = storage;
         }
 
         @Override
@@ -150,17 +359,24 @@ public class InMemoryJarClassLoader extends URLClassLoader {
         public InputStream getInputStream() throws IOException {
             var fileName = url.getFile();
 
-            byte[] data = this.cache.get(fileName);
+            var data = this.storage.openEntry(fileName);
 
             if (data == null) {
                 throw new FileNotFoundException(fileName);
             }
 
-            return new ByteArrayInputStream(data);
+            return data;
         }
 
         public Set<String> getAllEntries() {
-            return cache.keySet();
+            return storage.getEntryNames();
+        }
+
+        /**
+         * @return отсортированные имена записей, начинающихся с prefix
+         */
+        public NavigableSet<String> getEntriesWithPrefix(String prefix) {
+            return storage.getEntryNames().subSet(prefix, true, prefix + Character.MAX_VALUE, false);
         }
 
         public String getEntry() {
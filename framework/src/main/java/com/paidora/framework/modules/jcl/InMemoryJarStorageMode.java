@@ -0,0 +1,18 @@
+package com.paidora.framework.modules.jcl;
+
+public enum InMemoryJarStorageMode {
+    /**
+     * Все записи джарника распаковываются в память при создании класслоадера
+     */
+    EAGER,
+    /**
+     * При создании читается только центральный каталог zip, запись распаковывается при первом обращении к ней
+     * и остается в памяти распакованной
+     */
+    LAZY,
+    /**
+     * Как LAZY, но распакованные записи держатся только в ограниченном по размеру LRU кеше,
+     * а записи больше этого кеша распаковываются потоково при каждом чтении
+     */
+    COMPRESSED
+}
@@ -0,0 +1,51 @@
+package com.paidora.framework.modules.jcl;
+
+import lombok.*;
+
+import java.util.List;
+
+/**
+ * defaults:
+ * storageMode:         EAGER
+ * inflatedCacheSize:   2 Мб, используется только в режиме COMPRESSED
+ * nestedLibDirs:       BOOT-INF/lib/, lib/ - джарники, лежащие прямо в этих директориях, индексируются как часть плагина.
+ *                      Записи самого плагина имеют приоритет, между вложенными джарниками побеждает первый по порядку.
+ * deduplicateEntries:  false - если включено, содержимое записей хранится в общем {@link SharedEntryStore}
+ * offHeap:             false - снапшот джарника (LAZY/COMPRESSED) и общие записи хранятся в direct буферах вне кучи
+ */
+@Getter
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@ToString
+public class InMemoryJarStorageOptions {
+    public static final long DEFAULT_INFLATED_CACHE_SIZE = 2L * 1024 * 1024;
+    public static final List<String> DEFAULT_NESTED_LIB_DIRS = List.of("/BOOT-INF/lib/", "/lib/");
+
+    @Builder.Default
+    private InMemoryJarStorageMode storageMode = InMemoryJarStorageMode.EAGER;
+    @Builder.Default
+    private long inflatedCacheSize = DEFAULT_INFLATED_CACHE_SIZE;
+    @Builder.Default
+    private List<String> nestedLibDirs = DEFAULT_NESTED_LIB_DIRS;
+    private boolean deduplicateEntries;
+    private boolean offHeap;
+
+    public static InMemoryJarStorageOptions of(InMemoryJarStorageMode storageMode) {
+        return InMemoryJarStorageOptions.builder()
+                .storageMode(storageMode)
+                .build();
+    }
+
+    static boolean isNestedJar(String entryName, List<String> nestedLibDirs) {
+        if (nestedLibDirs == null || !entryName.endsWith(".jar")) {
+            return false;
+        }
+        for (var dir : nestedLibDirs) {
+            if (entryName.startsWith(dir) && entryName.indexOf('/', dir.length()) < 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
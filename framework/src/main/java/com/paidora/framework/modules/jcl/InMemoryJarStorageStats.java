@@ -0,0 +1,38 @@
+package com.paidora.framework.modules.jcl;
+
+import lombok.*;
+
+@Setter
+@Getter
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@ToString
+public class InMemoryJarStorageStats {
+    private InMemoryJarStorageMode storageMode;
+    private int entries;
+    private int nestedJars;
+    /**
+     * Байты, которые хранилище держит в памяти постоянно: распакованные записи для EAGER, снапшот джарника для LAZY/COMPRESSED
+     */
+    private long storedBytes;
+    /**
+     * Байты распакованных записей, которые сейчас лежат в кеше
+     */
+    private long cachedBytes;
+    private long cacheLimitBytes;
+    /**
+     * Обращения к кешу распакованных записей через потоки ресурсов
+     */
+    private long hits;
+    private long misses;
+    private long evictions;
+    /**
+     * Сколько всего байт было распаковано с момента создания хранилища
+     */
+    private long inflatedBytes;
+    /**
+     * Сколько раз записи были отданы буфером для определения классов, в обход кеша распакованных записей
+     */
+    private long bufferReads;
+}
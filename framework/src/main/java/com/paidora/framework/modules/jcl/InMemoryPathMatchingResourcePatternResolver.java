@@ -48,13 +48,20 @@ public class InMemoryPathMatchingResourcePatternResolver extends PathMatchingRes
         if (con instanceof InMemoryJarClassLoader.InMemoryJarURLConnection) {
             var jarCon = (InMemoryJarClassLoader.InMemoryJarURLConnection) con;
             var rootEntryPath = jarCon.getEntry();
+            var pathMatcher = this.getPathMatcher();
+            var entries = jarCon.getEntriesWithPrefix(rootEntryPath + getLiteralPrefix(subPattern));
             var result = new LinkedHashSet<Resource>(8);
-            for (var entryPath : jarCon.getAllEntries()) {
-                if (entryPath.startsWith(rootEntryPath)) {
-                    var relativePath = entryPath.substring(rootEntryPath.length());
-                    if (this.getPathMatcher().match(subPattern, relativePath)) {
-                        result.add(rootDirResource.createRelative(relativePath));
-                    }
+            var it = entries.iterator();
+            while (it.hasNext()) {
+                var entryPath = it.next();
+                var relativePath = entryPath.substring(rootEntryPath.length());
+                if (entryPath.endsWith("/") && !pathMatcher.matchStart(subPattern, relativePath)) {
+                    // в эту директорию шаблон зайти не может, пропускаем все ее содержимое
+                    it = entries.tailSet(entryPath + Character.MAX_VALUE, false).iterator();
+                    continue;
+                }
+                if (pathMatcher.match(subPattern, relativePath)) {
+                    result.add(rootDirResource.createRelative(relativePath));
                 }
             }
             return result;
@@ -62,4 +69,17 @@ public class InMemoryPathMatchingResourcePatternResolver extends PathMatchingRes
             return Collections.emptySet();
         }
     }
+
+    /**
+     * @return начальные директории шаблона без подстановочных символов, например "com/example/" для "com/example/**&#47;*.class"
+     */
+    private String getLiteralPrefix(String subPattern) {
+        var end = 0;
+        var slash = subPattern.indexOf('/');
+        while (slash >= 0 && !getPathMatcher().isPattern(subPattern.substring(end, slash))) {
+            end = slash + 1;
+            slash = subPattern.indexOf('/', end);
+        }
+        return subPattern.substring(0, end);
+    }
 }
@@ -0,0 +1,88 @@
+package com.paidora.framework.modules.jcl;
+
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * LRU кеш распакованных записей джарника, ограниченный суммарным размером в байтах
+ */
+class InflatedEntryCache {
+    private final long maxBytes;
+    private final LinkedHashMap<String, byte[]> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private long cachedBytes;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    InflatedEntryCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    synchronized byte[] get(String name) {
+        var data = entries.get(name);
+        if (data != null) {
+            hits.increment();
+        } else {
+            misses.increment();
+        }
+        return data;
+    }
+
+    /**
+     * Как {@link #get(String)}, но без учета в попаданиях и промахах: для чтений, которые кеш не пополняют
+     */
+    synchronized byte[] peek(String name) {
+        return entries.get(name);
+    }
+
+    boolean isCacheable(long size) {
+        return size <= maxBytes;
+    }
+
+    synchronized byte[] put(String name, byte[] data) {
+        if (!isCacheable(data.length)) {
+            return data;
+        }
+        var existing = entries.putIfAbsent(name, data);
+        if (existing != null) {
+            return existing;
+        }
+        cachedBytes += data.length;
+        var it = entries.entrySet().iterator();
+        while (cachedBytes > maxBytes && it.hasNext()) {
+            var eldest = it.next();
+            if (eldest.getKey().equals(name)) {
+                continue;
+            }
+            cachedBytes -= eldest.getValue().length;
+            it.remove();
+            evictions.increment();
+        }
+        return data;
+    }
+
+    synchronized void clear() {
+        entries.clear();
+        cachedBytes = 0;
+    }
+
+    long getMaxBytes() {
+        return maxBytes;
+    }
+
+    synchronized long getCachedBytes() {
+        return cachedBytes;
+    }
+
+    long getHits() {
+        return hits.sum();
+    }
+
+    long getMisses() {
+        return misses.sum();
+    }
+
+    long getEvictions() {
+        return evictions.sum();
+    }
+}
@@ -0,0 +1,423 @@
+package com.paidora.framework.modules.jcl;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Хранилище, которое держит в памяти снапшот джарника как есть и при создании разбирает только центральный каталог zip.
+ * Запись распаковывается при обращении к ней, распакованные данные живут в {@link InflatedEntryCache}:
+ * без ограничения по размеру для LAZY и с ограничением для COMPRESSED.
+ * Вложенные джарники из {@link InMemoryJarStorageOptions#getNestedLibDirs()} индексируются так же,
+ * упакованные без сжатия используются прямо из снапшота, сжатые распаковываются один раз при создании.
+ * Для определения классов запись отдается буфером: несжатая - срезом снапшота, сжатая распаковывается
+ * в переиспользуемый direct буфер потока, так что байткод не копируется в кучу.
+ */
+@Slf4j
+class LazyJarEntryStorage implements IJarEntryStorage {
+    private static final int END_HEADER_SIGNATURE = 0x06054b50;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int END_HEADER_SIZE = 22;
+    private static final int CENTRAL_HEADER_SIZE = 46;
+    private static final int LOCAL_HEADER_SIZE = 30;
+    private static final int MAX_COMMENT_SIZE = 0xFFFF;
+    private static final int METHOD_STORED = 0;
+    private static final int METHOD_DEFLATED = 8;
+    private static final int MAX_SCRATCH_BUFFERS = 4;
+    private static final int MAX_SCRATCH_BUFFER_SIZE = 1024 * 1024;
+    private static final ThreadLocal<ArrayDeque<ByteBuffer>> SCRATCH_BUFFERS = ThreadLocal.withInitial(ArrayDeque::new);
+
+    private final InMemoryJarStorageMode storageMode;
+    private final boolean offHeap;
+    private final Map<String, ZipEntryRecord> entries;
+    private final NavigableSet<String> entryNames;
+    private final InflatedEntryCache inflated;
+    private final LongAdder inflatedBytes = new LongAdder();
+    private final LongAdder bufferReads = new LongAdder();
+    private final List<SharedEntryStore.SharedEntry> sharedEntries = new ArrayList<>();
+    private long storedBytes;
+    private int nestedJars;
+
+    /**
+     * @param archive снапшот джарника в куче или вне ее, хранилище забирает его себе
+     */
+    LazyJarEntryStorage(ByteBuffer archive, InMemoryJarStorageOptions options) throws IOException {
+        this.storageMode = options.getStorageMode();
+        this.offHeap = options.isOffHeap();
+        this.inflated = new InflatedEntryCache(storageMode == InMemoryJarStorageMode.COMPRESSED ? options.getInflatedCacheSize() : Long.MAX_VALUE);
+        archive = archive.slice().order(ByteOrder.LITTLE_ENDIAN);
+        this.storedBytes = archive.capacity();
+        var index = readCentralDirectory(archive);
+        indexNestedJars(index, options.getNestedLibDirs());
+        addMissingDirectories(index);
+        if (options.isDeduplicateEntries()) {
+            try {
+                shareEntries(index);
+            } catch (IOException e) {
+                close();
+                throw e;
+            }
+        }
+        this.entries = Collections.unmodifiableMap(index);
+        this.entryNames = Collections.unmodifiableNavigableSet(new TreeSet<>(index.keySet()));
+    }
+
+    /**
+     * Переносит данные каждой записи в {@link SharedEntryStore}, после чего снапшот джарника больше не нужен.
+     * Сжатые записи хранятся сжатыми, но адресуются хешем распакованного содержимого, для чего один раз распаковываются,
+     * так что записи разных сборок с одинаковым содержимым совпадают при любом сжатии.
+     */
+    private void shareEntries(Map<String, ZipEntryRecord> index) throws IOException {
+        storedBytes = 0;
+        for (var entry : index.entrySet()) {
+            var name = entry.getKey();
+            var record = entry.getValue();
+            if (record.archive == null || record.compressedSize == 0) {
+                continue;
+            }
+            SharedEntryStore.SharedEntry sharedEntry;
+            if (record.method == METHOD_STORED) {
+                sharedEntry = SharedEntryStore.getInstance().acquire(getCompressedData(name, record), offHeap);
+            } else {
+                byte[] contentDigest;
+                var scratch = acquireScratchBuffer((int) record.size);
+                try {
+                    contentDigest = SharedEntryStore.digest(readEntry(name, record, scratch));
+                } finally {
+                    releaseScratchBuffer(scratch);
+                }
+                sharedEntry = SharedEntryStore.getInstance().acquireDeflated(contentDigest, getCompressedData(name, record), offHeap);
+            }
+            sharedEntries.add(sharedEntry);
+            var data = sharedEntry.getData();
+            storedBytes += data.remaining();
+            entry.setValue(record.withData(data));
+        }
+    }
+
+    private void indexNestedJars(Map<String, ZipEntryRecord> index, List<String> nestedLibDirs) {
+        var nestedEntries = new LinkedHashMap<String, ZipEntryRecord>();
+        for (var entry : index.entrySet()) {
+            var name = entry.getKey();
+            if (!InMemoryJarStorageOptions.isNestedJar(name, nestedLibDirs)) {
+                continue;
+            }
+            try {
+                var record = entry.getValue();
+                ByteBuffer nestedArchive;
+                if (record.method == METHOD_STORED) {
+                    nestedArchive = getCompressedData(name, record).order(ByteOrder.LITTLE_ENDIAN);
+                } else {
+                    nestedArchive = readEntry(name, record, allocate((int) record.size)).order(ByteOrder.LITTLE_ENDIAN);
+                    storedBytes += nestedArchive.capacity();
+                }
+                for (var nestedEntry : readCentralDirectory(nestedArchive).entrySet()) {
+                    nestedEntries.putIfAbsent(nestedEntry.getKey(), nestedEntry.getValue());
+                }
+                nestedJars++;
+                log.debug("Indexed nested jar = " + name);
+            } catch (IOException e) {
+                log.warn("Can't index nested jar " + name + ", it will be available only as a resource: " + e.getMessage());
+            }
+        }
+        for (var nestedEntry : nestedEntries.entrySet()) {
+            index.putIfAbsent(nestedEntry.getKey(), nestedEntry.getValue());
+        }
+    }
+
+    private static Map<String, ZipEntryRecord> readCentralDirectory(ByteBuffer archive) throws IOException {
+        var endPos = findEndHeader(archive);
+        var totalEntries = Short.toUnsignedInt(archive.getShort(endPos + 10));
+        var cdSize = Integer.toUnsignedLong(archive.getInt(endPos + 12));
+        var cdOffset = Integer.toUnsignedLong(archive.getInt(endPos + 16));
+        if (totalEntries == 0xFFFF || cdSize == 0xFFFFFFFFL || cdOffset == 0xFFFFFFFFL) {
+            throw new ZipException("ZIP64 archives are not supported");
+        }
+        if (cdOffset + cdSize > endPos) {
+            throw new ZipException("Invalid central directory offset");
+        }
+
+        var result = new LinkedHashMap<String, ZipEntryRecord>(totalEntries * 2);
+        var pos = (int) cdOffset;
+        for (var i = 0; i < totalEntries; i++) {
+            if (pos + CENTRAL_HEADER_SIZE > endPos || archive.getInt(pos) != CENTRAL_HEADER_SIGNATURE) {
+                throw new ZipException("Invalid central directory header at " + pos);
+            }
+            var flags = Short.toUnsignedInt(archive.getShort(pos + 8));
+            var method = Short.toUnsignedInt(archive.getShort(pos + 10));
+            var crc = Integer.toUnsignedLong(archive.getInt(pos + 16));
+            var compressedSize = Integer.toUnsignedLong(archive.getInt(pos + 20));
+            var size = Integer.toUnsignedLong(archive.getInt(pos + 24));
+            var nameLength = Short.toUnsignedInt(archive.getShort(pos + 28));
+            var extraLength = Short.toUnsignedInt(archive.getShort(pos + 30));
+            var commentLength = Short.toUnsignedInt(archive.getShort(pos + 32));
+            var localHeaderOffset = Integer.toUnsignedLong(archive.getInt(pos + 42));
+            if (compressedSize == 0xFFFFFFFFL || size == 0xFFFFFFFFL || localHeaderOffset == 0xFFFFFFFFL) {
+                throw new ZipException("ZIP64 archives are not supported");
+            }
+            if ((flags & 1) != 0) {
+                throw new ZipException("Encrypted entries are not supported");
+            }
+
+            var nameBytes = new byte[nameLength];
+            archive.get(pos + CENTRAL_HEADER_SIZE, nameBytes);
+            var name = "/" + new String(nameBytes, StandardCharsets.UTF_8);
+            pos += CENTRAL_HEADER_SIZE + nameLength + extraLength + commentLength;
+
+            if (result.containsKey(name)) {
+                log.debug("Class/Resource " + name + " already indexed; ignoring entry...");
+                continue;
+            }
+            result.put(name, new ZipEntryRecord(archive, method, crc, compressedSize, size, localHeaderOffset));
+        }
+        return result;
+    }
+
+    private static int findEndHeader(ByteBuffer archive) throws ZipException {
+        var limit = archive.limit();
+        var minPos = Math.max(0, limit - END_HEADER_SIZE - MAX_COMMENT_SIZE);
+        for (var pos = limit - END_HEADER_SIZE; pos >= minPos; pos--) {
+            if (archive.getInt(pos) == END_HEADER_SIGNATURE) {
+                return pos;
+            }
+        }
+        throw new ZipException("End of central directory not found");
+    }
+
+    /**
+     * Джарник может не содержать записей для директорий, а без них не находятся корни для сканирования ресурсов
+     */
+    private static void addMissingDirectories(Map<String, ZipEntryRecord> entries) {
+        var directories = new LinkedHashMap<String, ZipEntryRecord>();
+        for (var name : entries.keySet()) {
+            var slash = name.lastIndexOf('/', name.length() - 2);
+            while (slash > 0) {
+                var dir = name.substring(0, slash + 1);
+                if (entries.containsKey(dir) || directories.putIfAbsent(dir, ZipEntryRecord.DIRECTORY) != null) {
+                    break;
+                }
+                slash = name.lastIndexOf('/', slash - 1);
+            }
+        }
+        entries.putAll(directories);
+    }
+
+    @Override
+    public boolean containsEntry(String name) {
+        return entries.containsKey(name);
+    }
+
+    @Override
+    public InputStream openEntry(String name) throws IOException {
+        var record = entries.get(name);
+        if (record == null) {
+            return null;
+        }
+        if (record.size == 0) {
+            return new ByteArrayInputStream(new byte[]{});
+        }
+        var data = inflated.get(name);
+        if (data != null) {
+            return new ByteArrayInputStream(data);
+        }
+        if (!inflated.isCacheable(record.size) && record.method == METHOD_DEFLATED) {
+            inflatedBytes.add(record.size);
+            return new ByteBufferInflaterInputStream(getCompressedData(name, record), name, record.size, record.crc);
+        }
+        data = inflated.put(name, readEntry(name, record, ByteBuffer.allocate((int) record.size)).array());
+        return new ByteArrayInputStream(data);
+    }
+
+    @Override
+    public <T> T readEntry(String name, IEntryBufferReader<T> reader) throws IOException {
+        var record = entries.get(name);
+        if (record == null) {
+            return null;
+        }
+        if (record.size == 0) {
+            return reader.read(ByteBuffer.allocate(0));
+        }
+        // запись не кладется в кеш, поэтому чтение не считается ни попаданием, ни промахом
+        bufferReads.increment();
+        var data = inflated.peek(name);
+        if (data != null) {
+            return reader.read(ByteBuffer.wrap(data));
+        }
+        if (record.method == METHOD_STORED) {
+            return reader.read(getCompressedData(name, record));
+        }
+        var scratch = acquireScratchBuffer((int) record.size);
+        try {
+            return reader.read(readEntry(name, record, scratch));
+        } finally {
+            releaseScratchBuffer(scratch);
+        }
+    }
+
+    /**
+     * При определении класса JVM может рекурсивно загружать его родителей в этом же потоке,
+     * поэтому буфер выдается из стека и возвращается туда только после использования
+     */
+    private static ByteBuffer acquireScratchBuffer(int size) {
+        var buffers = SCRATCH_BUFFERS.get();
+        var buffer = buffers.pollFirst();
+        if (buffer == null || buffer.capacity() < size) {
+            buffer = ByteBuffer.allocateDirect(Math.max(size, 8192));
+        }
+        buffer.clear().limit(size);
+        return buffer;
+    }
+
+    private static void releaseScratchBuffer(ByteBuffer buffer) {
+        var buffers = SCRATCH_BUFFERS.get();
+        if (buffer.capacity() <= MAX_SCRATCH_BUFFER_SIZE && buffers.size() < MAX_SCRATCH_BUFFERS) {
+            buffers.addFirst(buffer);
+        }
+    }
+
+    private ByteBuffer allocate(int size) {
+        return offHeap ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+    }
+
+    private static ByteBuffer getCompressedData(String name, ZipEntryRecord record) throws ZipException {
+        if (record.data != null) {
+            return record.data.duplicate();
+        }
+        var archive = record.archive;
+        var headerPos = (int) record.localHeaderOffset;
+        if (archive.getInt(headerPos) != LOCAL_HEADER_SIGNATURE) {
+            throw new ZipException("Invalid local header for entry " + name);
+        }
+        var dataPos = headerPos + LOCAL_HEADER_SIZE
+                + Short.toUnsignedInt(archive.getShort(headerPos + 26))
+                + Short.toUnsignedInt(archive.getShort(headerPos + 28));
+        return archive.slice(dataPos, (int) record.compressedSize);
+    }
+
+    /**
+     * Распаковывает запись в target, у которого от position до limit ровно размер записи
+     *
+     * @return target, подготовленный для чтения
+     */
+    private ByteBuffer readEntry(String name, ZipEntryRecord record, ByteBuffer target) throws IOException {
+        var compressed = getCompressedData(name, record);
+        var start = target.position();
+
+        switch (record.method) {
+            case METHOD_STORED:
+                target.put(compressed);
+                break;
+            case METHOD_DEFLATED:
+                var inflater = new Inflater(true);
+                try {
+                    inflater.setInput(compressed);
+                    while (target.hasRemaining() && !inflater.finished()) {
+                        var n = inflater.inflate(target);
+                        if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                            throw new ZipException("Unexpected end of deflated data for entry " + name);
+                        }
+                    }
+                } catch (DataFormatException e) {
+                    throw new ZipException("Invalid deflated data for entry " + name + ": " + e.getMessage());
+                } finally {
+                    inflater.end();
+                }
+                break;
+            default:
+                throw new ZipException("Unsupported compression method " + record.method + " for entry " + name);
+        }
+        target.flip().position(start);
+
+        var crc = new CRC32();
+        crc.update(target.duplicate());
+        if (crc.getValue() != record.crc) {
+            throw new ZipException("Invalid CRC for entry " + name);
+        }
+        inflatedBytes.add(record.size);
+        log.debug("Inflated jar entry = " + name);
+        return target;
+    }
+
+    @Override
+    public NavigableSet<String> getEntryNames() {
+        return entryNames;
+    }
+
+    @Override
+    public InMemoryJarStorageStats getStats() {
+        return InMemoryJarStorageStats.builder()
+                .storageMode(storageMode)
+                .entries(entries.size())
+                .storedBytes(storedBytes)
+                .nestedJars(nestedJars)
+                .cachedBytes(inflated.getCachedBytes())
+                .cacheLimitBytes(inflated.getMaxBytes())
+                .hits(inflated.getHits())
+                .misses(inflated.getMisses())
+                .evictions(inflated.getEvictions())
+                .inflatedBytes(inflatedBytes.sum())
+                .bufferReads(bufferReads.sum())
+                .build();
+    }
+
+    @Override
+    public synchronized void close() {
+        inflated.clear();
+        for (var sharedEntry : sharedEntries) {
+            SharedEntryStore.getInstance().release(sharedEntry);
+        }
+        sharedEntries.clear();
+    }
+
+    private static final class ZipEntryRecord {
+        static final ZipEntryRecord DIRECTORY = new ZipEntryRecord(null, METHOD_STORED, 0, 0, 0, -1);
+
+        final ByteBuffer archive;
+        /**
+         * Сжатые данные записи, если они хранятся отдельно от снапшота
+         */
+        final ByteBuffer data;
+        final int method;
+        final long crc;
+        final long compressedSize;
+        final long size;
+        final long localHeaderOffset;
+
+        ZipEntryRecord(ByteBuffer archive, int method, long crc, long compressedSize, long size, long localHeaderOffset) {
+            this(archive, null, method, crc, compressedSize, size, localHeaderOffset);
+        }
+
+        private ZipEntryRecord(ByteBuffer archive, ByteBuffer data, int method, long crc, long compressedSize, long size, long localHeaderOffset) {
+            this.archive = archive;
+            this.data = data;
+            this.method = method;
+            this.crc = crc;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.localHeaderOffset = localHeaderOffset;
+        }
+
+        ZipEntryRecord withData(ByteBuffer data) {
+            return new ZipEntryRecord(null, data, method, crc, data.remaining(), size, -1);
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package com.paidora.framework.modules.jcl;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Общее на весь процесс хранилище содержимого записей джарников с адресацией по SHA-256 и подсчетом ссылок.
+ * Одинаковые классы и ресурсы разных версий плагина и разных класслоадеров хранятся в одном экземпляре,
+ * запись удаляется, когда ее отпускает последний класслоадер.
+ * Адрес - всегда хеш распакованного содержимого, поэтому одинаковые записи совпадают независимо от сжатия в джарнике.
+ * Данные в куче и вне кучи, распакованные и сжатые хранятся раздельно.
+ * Данные вне кучи нарезаются из общих direct буферов по {@link #DIRECT_CHUNK_SIZE}, кусок освобождается сборщиком мусора,
+ * когда отпущены все записи в нем.
+ */
+public class SharedEntryStore {
+    private static final SharedEntryStore INSTANCE = new SharedEntryStore();
+    static final int DIRECT_CHUNK_SIZE = 1024 * 1024;
+    private static final int MAX_CHUNKED_ENTRY_SIZE = DIRECT_CHUNK_SIZE / 8;
+    private static final ThreadLocal<MessageDigest> DIGEST = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
+    private final Map<ContentKey, SharedEntry> entries = new ConcurrentHashMap<>();
+    private final AtomicLong uniqueBytes = new AtomicLong();
+    private final AtomicLong references = new AtomicLong();
+    private final AtomicLong referencedBytes = new AtomicLong();
+    private ByteBuffer directChunk = ByteBuffer.allocate(0);
+
+    public static SharedEntryStore getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * @return SHA-256 данных от position до limit, сам буфер не меняется
+     */
+    static byte[] digest(ByteBuffer content) {
+        var digest = DIGEST.get();
+        digest.update(content.duplicate());
+        return digest.digest();
+    }
+
+    /**
+     * @param content данные от position до limit, сам буфер не меняется
+     * @param direct  хранить ли данные вне кучи
+     * @return запись с каноническим экземпляром данных, который нужно использовать вместо переданного
+     */
+    SharedEntry acquire(ByteBuffer content, boolean direct) {
+        return acquire(new ContentKey(digest(content), direct, false), content);
+    }
+
+    /**
+     * Сжатые данные записи с адресом по распакованному содержимому. Если такое содержимое уже есть,
+     * возвращаются сжатые данные, с которыми оно было добавлено первым, они могут отличаться от переданных.
+     *
+     * @param contentDigest {@link #digest(ByteBuffer)} распакованного содержимого
+     * @param deflated      сжатые данные от position до limit, сам буфер не меняется
+     */
+    SharedEntry acquireDeflated(byte[] contentDigest, ByteBuffer deflated, boolean direct) {
+        return acquire(new ContentKey(contentDigest, direct, true), deflated);
+    }
+
+    private SharedEntry acquire(ContentKey key, ByteBuffer content) {
+        var entry = entries.compute(key, (k, existing) -> {
+            if (existing == null) {
+                var size = content.remaining();
+                uniqueBytes.addAndGet(size);
+                var data = k.direct ? allocateDirect(size) : ByteBuffer.allocate(size);
+                data.put(content.duplicate()).flip();
+                return new SharedEntry(k, data);
+            }
+            existing.references++;
+            return existing;
+        });
+        references.incrementAndGet();
+        referencedBytes.addAndGet(entry.data.capacity());
+        return entry;
+    }
+
+    /**
+     * Маленькие записи нарезаются из общего куска, чтобы не создавать direct буфер и его Cleaner на каждую запись
+     */
+    private synchronized ByteBuffer allocateDirect(int size) {
+        if (size > MAX_CHUNKED_ENTRY_SIZE) {
+            return ByteBuffer.allocateDirect(size);
+        }
+        if (directChunk.remaining() < size) {
+            directChunk = ByteBuffer.allocateDirect(DIRECT_CHUNK_SIZE);
+        }
+        var data = directChunk.slice(directChunk.position(), size);
+        directChunk.position(directChunk.position() + size);
+        return data;
+    }
+
+    void release(SharedEntry entry) {
+        entries.computeIfPresent(entry.key, (k, existing) -> {
+            if (--existing.references > 0) {
+                return existing;
+            }
+            uniqueBytes.addAndGet(-existing.data.capacity());
+            return null;
+        });
+        references.decrementAndGet();
+        referencedBytes.addAndGet(-entry.data.capacity());
+    }
+
+    public SharedEntryStoreStats getStats() {
+        var unique = uniqueBytes.get();
+        var referenced = referencedBytes.get();
+        return SharedEntryStoreStats.builder()
+                .uniqueEntries(entries.size())
+                .uniqueBytes(unique)
+                .references(references.get())
+                .referencedBytes(referenced)
+                .savedBytes(referenced - unique)
+                .dedupRatio(unique > 0 ? (double) referenced / unique : 1.0)
+                .build();
+    }
+
+    static final class SharedEntry {
+        private final ContentKey key;
+        private final ByteBuffer data;
+        private int references = 1;
+
+        private SharedEntry(ContentKey key, ByteBuffer data) {
+            this.key = key;
+            this.data = data;
+        }
+
+        /**
+         * @return новый view на данные, его position и limit можно менять
+         */
+        ByteBuffer getData() {
+            return data.duplicate();
+        }
+    }
+
+    private static final class ContentKey {
+        private final byte[] digest;
+        private final boolean direct;
+        private final boolean deflated;
+        private final int hash;
+
+        private ContentKey(byte[] digest, boolean direct, boolean deflated) {
+            this.digest = digest;
+            this.direct = direct;
+            this.deflated = deflated;
+            this.hash = 31 * (31 * Arrays.hashCode(digest) + (direct ? 1 : 0)) + (deflated ? 1 : 0);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof ContentKey)) {
+                return false;
+            }
+            var other = (ContentKey) o;
+            return direct == other.direct && deflated == other.deflated && Arrays.equals(digest, other.digest);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
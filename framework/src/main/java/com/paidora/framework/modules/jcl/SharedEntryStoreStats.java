@@ -0,0 +1,24 @@
+package com.paidora.framework.modules.jcl;
+
+import lombok.*;
+
+@Setter
+@Getter
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@ToString
+public class SharedEntryStoreStats {
+    private int uniqueEntries;
+    /**
+     * Сколько байт реально хранится
+     */
+    private long uniqueBytes;
+    private long references;
+    /**
+     * Сколько байт хранилось бы без дедупликации
+     */
+    private long referencedBytes;
+    private long savedBytes;
+    private double dedupRatio;
+}
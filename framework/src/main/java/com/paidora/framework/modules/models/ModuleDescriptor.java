@@ -0,0 +1,24 @@
+package com.paidora.framework.modules.models;
+
+import lombok.*;
+
+/**
+ * Описание модуля: из индекса META-INF/paidora-module.idx, который генерируется при сборке плагина,
+ * или из хранилища описаний рядом с джарниками, см. {@link com.paidora.framework.modules.service.ModulesStorageManagerBase}
+ */
+@Setter
+@Getter
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@ToString
+public class ModuleDescriptor {
+    private String name;
+    private String className;
+    private String version;
+    private boolean springRegistrable;
+    /**
+     * sha256 джарника в hex, заполняется только в хранилище описаний
+     */
+    private String jarHash;
+}
@@ -2,6 +2,11 @@ package com.paidora.framework.modules.repository;
 
 import lombok.*;
 
+import java.io.File;
+
+/**
+ * Скачанный джарник, лежит во временном файле, который удаляет тот, кто его скачивал
+ */
 @Setter
 @Getter
 @Builder
@@ -10,5 +15,6 @@ import lombok.*;
 @ToString
 public class DownloadedJar {
     private String fileName;
-    private byte[] jarBytes;
+    private File jarFile;
+    private String sha256;
 }
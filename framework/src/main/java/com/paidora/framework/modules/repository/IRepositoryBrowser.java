@@ -3,12 +3,25 @@ package com.paidora.framework.modules.repository;
 import com.paidora.framework.exceptions.UnexpectedBehaviourException;
 import org.apache.maven.artifact.repository.metadata.Metadata;
 
+import java.io.Closeable;
+import java.nio.file.Path;
 import java.util.List;
 
-public interface IRepositoryBrowser {
+/**
+ * Держит HTTP клиенты с пулами соединений, после использования его нужно закрыть
+ */
+public interface IRepositoryBrowser extends Closeable {
     List<String> getAvailableArtifactIds() throws UnexpectedBehaviourException;
 
     Metadata getArtifactMetadata(String artifactId) throws UnexpectedBehaviourException;
 
-    DownloadedJar downloadJar(String artifactId, String version) throws UnexpectedBehaviourException;
+    /**
+     * Скачивает джарник в targetFile, сверяя его контрольную сумму с репозиторием
+     */
+    DownloadedJar downloadJar(String artifactId, String version, Path targetFile) throws UnexpectedBehaviourException;
+
+    RepositoryRequestStats getRequestStats();
+
+    @Override
+    void close();
 }
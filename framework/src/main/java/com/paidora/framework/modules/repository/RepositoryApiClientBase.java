@@ -0,0 +1,167 @@
+package com.paidora.framework.modules.repository;
+
+import com.paidora.framework.exceptions.UnexpectedBehaviourException;
+import com.paidora.framework.http.client.ApiClientBase;
+import com.paidora.framework.http.client.core.ApiClientBodyType;
+import com.paidora.framework.http.client.core.ApiClientDownloadedFile;
+import com.paidora.framework.http.client.core.ApiClientHttpRequest;
+import com.paidora.framework.http.client.core.FileApiResponseBodySink;
+import com.paidora.framework.http.client.core.IApiClientHttpResponseCodeProcessor;
+import com.paidora.framework.http.client.core.auth.IApiClientHttpAuth;
+import lombok.AllArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.hc.core5.http.HttpHeaders;
+import org.apache.hc.core5.http.HttpResponse;
+import org.apache.hc.core5.http.HttpStatus;
+
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Общая часть клиентов maven репозиториев: скачивание артефакта потоком в файл со сверкой контрольной суммы
+ * и условные GET запросы для списков и метаданных, которые почти никогда не меняются
+ */
+@Slf4j
+public abstract class RepositoryApiClientBase extends ApiClientBase {
+    private final Map<String, ConditionalResponse> conditionalResponses = new ConcurrentHashMap<>();
+    private final LongAdder modifiedResponses = new LongAdder();
+    private final LongAdder notModifiedResponses = new LongAdder();
+
+    protected RepositoryApiClientBase(String url, Long responseTimeoutSeconds) {
+        super(url, responseTimeoutSeconds);
+    }
+
+    /**
+     * Скачивает артефакт в targetFile и сверяет его с .sha256, а если ее нет, то с .sha1 из репозитория
+     */
+    protected DownloadedJar downloadJar(String jarUrl, String jarFileName, Path targetFile, IApiClientHttpAuth auth) throws UnexpectedBehaviourException {
+        var request = ApiClientHttpRequest.<Void, ApiClientDownloadedFile>getStream(jarUrl, new FileApiResponseBodySink(targetFile));
+        request.setApiClientHttpAuth(auth);
+        var downloadedFile = makeApiRequest(request);
+
+        var expectedSha256 = getChecksum(jarUrl + ".sha256", auth);
+        if (expectedSha256 != null) {
+            verifyChecksum(jarFileName, "sha256", expectedSha256, downloadedFile.getSha256());
+        } else {
+            var expectedSha1 = getChecksum(jarUrl + ".sha1", auth);
+            if (expectedSha1 != null) {
+                verifyChecksum(jarFileName, "sha1", expectedSha1, downloadedFile.getSha1());
+            } else {
+                log.warn("No checksum found in repository for " + jarFileName + ", it is not verified");
+            }
+        }
+        log.info("Downloaded jar " + jarFileName + " with length: " + downloadedFile.getSize());
+        return DownloadedJar.builder()
+                .fileName(jarFileName)
+                .jarFile(downloadedFile.getFile())
+                .sha256(downloadedFile.getSha256())
+                .build();
+    }
+
+    /**
+     * GET с валидаторами прошлого ответа по этому url. На 304 Not Modified тело не читается и не разбирается,
+     * а возвращается сохраненный результат parser.
+     */
+    @SuppressWarnings("unchecked")
+    protected <TResponse, TResult> TResult makeConditionalRequest(ApiClientHttpRequest<Void, TResponse> request,
+                                                                  Function<TResponse, TResult> parser) throws UnexpectedBehaviourException {
+        var url = request.getUrl();
+        var cached = conditionalResponses.get(url);
+        if (cached != null) {
+            if (cached.etag != null) {
+                request.registerHttpRequestHeader(HttpHeaders.IF_NONE_MATCH, cached.etag);
+            }
+            if (cached.lastModified != null) {
+                request.registerHttpRequestHeader(HttpHeaders.IF_MODIFIED_SINCE, cached.lastModified);
+            }
+        }
+        var validators = new ConditionalResponse(null, null, null);
+        var notModified = new boolean[1];
+        request.setResponseHeadersProcessor(response -> {
+            var etag = response.getFirstHeader(HttpHeaders.ETAG);
+            var lastModified = response.getFirstHeader(HttpHeaders.LAST_MODIFIED);
+            validators.etag = etag != null ? etag.getValue() : null;
+            validators.lastModified = lastModified != null ? lastModified.getValue() : null;
+        });
+        request.registerHttpResponseCodeProcessor(new IApiClientHttpResponseCodeProcessor<>() {
+            @Override
+            public Integer getHttpCode() {
+                return HttpStatus.SC_NOT_MODIFIED;
+            }
+
+            @Override
+            public TResponse processResponse(HttpResponse response, String body) {
+                notModified[0] = true;
+                return null;
+            }
+        });
+
+        var response = makeApiRequest(request);
+        if (notModified[0]) {
+            if (cached == null) {
+                throw new UnexpectedBehaviourException("http:" + HttpStatus.SC_NOT_MODIFIED);
+            }
+            notModifiedResponses.increment();
+            return (TResult) cached.result;
+        }
+        modifiedResponses.increment();
+        var result = parser.apply(response);
+        if (validators.etag != null || validators.lastModified != null) {
+            validators.result = result;
+            conditionalResponses.put(url, validators);
+        } else {
+            conditionalResponses.remove(url);
+        }
+        return result;
+    }
+
+    public RepositoryRequestStats getRequestStats() {
+        return RepositoryRequestStats.builder()
+                .modified(modifiedResponses.sum())
+                .notModified(notModifiedResponses.sum())
+                .cachedUrls(conditionalResponses.size())
+                .build();
+    }
+
+    private static void verifyChecksum(String jarFileName, String algorithm, String expected, String actual) throws UnexpectedBehaviourException {
+        if (!expected.equals(actual)) {
+            throw new UnexpectedBehaviourException("Checksum mismatch for " + jarFileName + ": " + algorithm + " " + actual + " expected " + expected);
+        }
+    }
+
+    /**
+     * @return контрольная сумма из файла рядом с артефактом или null, если такого файла нет
+     */
+    private String getChecksum(String checksumUrl, IApiClientHttpAuth auth) throws UnexpectedBehaviourException {
+        var request = ApiClientHttpRequest.get(checksumUrl, ApiClientBodyType.TEXT, String.class);
+        request.setApiClientHttpAuth(auth);
+        request.registerHttpResponseCodeProcessor(new IApiClientHttpResponseCodeProcessor<>() {
+            @Override
+            public Integer getHttpCode() {
+                return 404;
+            }
+
+            @Override
+            public String processResponse(HttpResponse response, String body) {
+                return null;
+            }
+        });
+        var checksum = makeApiRequest(request);
+        if (checksum == null || checksum.isBlank()) {
+            return null;
+        }
+        // файл может содержать после суммы имя артефакта
+        return checksum.trim().split("\\s+")[0].toLowerCase(Locale.ROOT);
+    }
+
+    @AllArgsConstructor
+    private static class ConditionalResponse {
+        private volatile String etag;
+        private volatile String lastModified;
+        private volatile Object result;
+    }
+}
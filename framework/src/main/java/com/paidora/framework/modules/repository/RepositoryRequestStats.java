@@ -0,0 +1,18 @@
+package com.paidora.framework.modules.repository;
+
+import lombok.*;
+
+/**
+ * Счетчики условных запросов к репозиторию: полные ответы и 304 Not Modified
+ */
+@Setter
+@Getter
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@ToString
+public class RepositoryRequestStats {
+    private long modified;
+    private long notModified;
+    private long cachedUrls;
+}
@@ -1,21 +1,23 @@
 package com.paidora.framework.modules.repository.nexus;
 
 import com.paidora.framework.exceptions.UnexpectedBehaviourException;
-import com.paidora.framework.http.client.ApiClientBase;
 import com.paidora.framework.http.client.core.ApiClientBodyType;
 import com.paidora.framework.http.client.core.ApiClientHttpRequest;
 import com.paidora.framework.http.client.core.auth.BasicApiClientHttpAuth;
 import com.paidora.framework.modules.repository.DownloadedJar;
+import com.paidora.framework.modules.repository.RepositoryApiClientBase;
 import com.paidora.framework.modules.service.properties.IModulesRepositoryProperties;
 import com.paidora.framework.utils.uri.Uri;
 import org.apache.maven.artifact.repository.metadata.Metadata;
 import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
 
+import java.nio.file.Path;
 import java.util.List;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
-public class NexusApiClient extends ApiClientBase {
+public class NexusApiClient extends RepositoryApiClientBase {
     private final String repositoryName;
     private final String groupId;
     private final String groupPath;
@@ -35,12 +37,13 @@ public class NexusApiClient extends ApiClientBase {
                 .setRelativePath(repositoryName)
                 .setRelativePath(groupPath)
                 .setRelativePath("/");
-        var request = ApiClientHttpRequest.get(url.toString(), ApiClientBodyType.TEXT, String.class);
+        var request = ApiClientHttpRequest.<Void, String>get(url.toString(), ApiClientBodyType.TEXT, String.class);
         request.setApiClientHttpAuth(auth);
-        var html = makeApiRequest(request);
-        Document document = Jsoup.parse(html);
-        var elements = document.select("body > table > tbody > tr > td:nth-child(1) > a");
-        return elements.eachText().stream().filter(t -> !t.equals("Parent Directory")).collect(Collectors.toList());
+        return makeConditionalRequest(request, html -> {
+            Document document = Jsoup.parse(html);
+            var elements = document.select("body > table > tbody > tr > td:nth-child(1) > a");
+            return elements.eachText().stream().filter(t -> !t.equals("Parent Directory")).collect(Collectors.toList());
+        });
     }
 
     public Metadata getArtifactMetadata(String artifactId) throws UnexpectedBehaviourException {
@@ -50,12 +53,12 @@ public class NexusApiClient extends ApiClientBase {
                 .setRelativePath(groupPath)
                 .setRelativePath(artifactId)
                 .setRelativePath("maven-metadata.xml");
-        var request = ApiClientHttpRequest.get(url.toString(), ApiClientBodyType.XML, Metadata.class);
+        var request = ApiClientHttpRequest.<Void, Metadata>get(url.toString(), ApiClientBodyType.XML, Metadata.class);
         request.setApiClientHttpAuth(auth);
-        return makeApiRequest(request);
+        return makeConditionalRequest(request, Function.identity());
     }
 
-    public DownloadedJar getArtifactBinary(String artifactId, String version) throws UnexpectedBehaviourException {
+    public DownloadedJar getArtifactBinary(String artifactId, String version, Path targetFile) throws UnexpectedBehaviourException {
         var jarFileName = artifactId + "-" + version + ".jar";
         var url = Uri.parseUri(getUrl())
                 .setPath("repository")
@@ -64,12 +67,6 @@ public class NexusApiClient extends ApiClientBase {
                 .setRelativePath(artifactId)
                 .setRelativePath(version)
                 .setRelativePath(jarFileName);
-        var request = ApiClientHttpRequest.get(url.toString(), ApiClientBodyType.BLOB, byte[].class);
-        request.setApiClientHttpAuth(auth);
-        byte[] jarBytes = makeApiRequest(request);
-        return DownloadedJar.builder()
-                .fileName(jarFileName)
-                .jarBytes(jarBytes)
-                .build();
+        return downloadJar(url.toString(), jarFileName, targetFile, auth);
     }
 }
@@ -3,9 +3,11 @@ package com.paidora.framework.modules.repository.nexus;
 import com.paidora.framework.exceptions.UnexpectedBehaviourException;
 import com.paidora.framework.modules.repository.DownloadedJar;
 import com.paidora.framework.modules.repository.IRepositoryBrowser;
+import com.paidora.framework.modules.repository.RepositoryRequestStats;
 import com.paidora.framework.modules.service.properties.IModulesRepositoryProperties;
 import org.apache.maven.artifact.repository.metadata.Metadata;
 
+import java.nio.file.Path;
 import java.util.List;
 
 public class NexusRepositoryBrowser implements IRepositoryBrowser {
@@ -27,7 +29,17 @@ public class NexusRepositoryBrowser implements IRepositoryBrowser {
     }
 
     @Override
-    public DownloadedJar downloadJar(String artifactId, String version) throws UnexpectedBehaviourException {
-        return nexusApiClient.getArtifactBinary(artifactId, version);
+    public DownloadedJar downloadJar(String artifactId, String version, Path targetFile) throws UnexpectedBehaviourException {
+        return nexusApiClient.getArtifactBinary(artifactId, version, targetFile);
+    }
+
+    @Override
+    public RepositoryRequestStats getRequestStats() {
+        return nexusApiClient.getRequestStats();
+    }
+
+    @Override
+    public void close() {
+        nexusApiClient.close();
     }
 }
@@ -1,15 +1,18 @@
 package com.paidora.framework.modules.repository.reposilite;
 
 import com.paidora.framework.exceptions.UnexpectedBehaviourException;
-import com.paidora.framework.http.client.ApiClientBase;
 import com.paidora.framework.http.client.core.ApiClientBodyType;
 import com.paidora.framework.http.client.core.ApiClientHttpRequest;
 import com.paidora.framework.modules.repository.DownloadedJar;
+import com.paidora.framework.modules.repository.RepositoryApiClientBase;
 import com.paidora.framework.modules.service.properties.IModulesRepositoryProperties;
 import com.paidora.framework.utils.uri.Uri;
 import org.apache.maven.artifact.repository.metadata.Metadata;
 
-public class ReposiliteApiClient extends ApiClientBase {
+import java.nio.file.Path;
+import java.util.function.Function;
+
+public class ReposiliteApiClient extends RepositoryApiClientBase {
     private final String repositoryPath;
 
     public ReposiliteApiClient(IModulesRepositoryProperties repositoryProperties) {
@@ -22,8 +25,8 @@ public class ReposiliteApiClient extends ApiClientBase {
         var url = Uri.parseUri(getUrl())
                 .setRelativePath("api/maven/details/")
                 .setRelativePath(repositoryPath);
-        var request = ApiClientHttpRequest.get(url.toString(), ApiClientBodyType.JSON, ReposiliteFile.class);
-        return makeApiRequest(request);
+        var request = ApiClientHttpRequest.<Void, ReposiliteFile>get(url.toString(), ApiClientBodyType.JSON, ReposiliteFile.class);
+        return makeConditionalRequest(request, Function.identity());
     }
 
     public Metadata getArtifactMetadata(String artifactId) throws UnexpectedBehaviourException {
@@ -31,22 +34,17 @@ public class ReposiliteApiClient extends ApiClientBase {
                 .setRelativePath(repositoryPath)
                 .setRelativePath(artifactId)
                 .setRelativePath("maven-metadata.xml");
-        var request = ApiClientHttpRequest.get(url.toString(), ApiClientBodyType.XML, Metadata.class);
-        return makeApiRequest(request);
+        var request = ApiClientHttpRequest.<Void, Metadata>get(url.toString(), ApiClientBodyType.XML, Metadata.class);
+        return makeConditionalRequest(request, Function.identity());
     }
 
-    public DownloadedJar getArtifactBinary(String artifactId, String version) throws UnexpectedBehaviourException {
+    public DownloadedJar getArtifactBinary(String artifactId, String version, Path targetFile) throws UnexpectedBehaviourException {
         var jarFileName = artifactId + "-" + version + ".jar";
         var url = Uri.parseUri(getUrl())
                 .setRelativePath(repositoryPath)
                 .setRelativePath(artifactId)
                 .setRelativePath(version)
                 .setRelativePath(jarFileName);
-        var request = ApiClientHttpRequest.get(url.toString(), ApiClientBodyType.BLOB, byte[].class);
-        byte[] jarBytes = makeApiRequest(request);
-        return DownloadedJar.builder()
-                .fileName(jarFileName)
-                .jarBytes(jarBytes)
-                .build();
+        return downloadJar(url.toString(), jarFileName, targetFile, null);
     }
 }
@@ -3,9 +3,11 @@ package com.paidora.framework.modules.repository.reposilite;
 import com.paidora.framework.exceptions.UnexpectedBehaviourException;
 import com.paidora.framework.modules.repository.DownloadedJar;
 import com.paidora.framework.modules.repository.IRepositoryBrowser;
+import com.paidora.framework.modules.repository.RepositoryRequestStats;
 import com.paidora.framework.modules.service.properties.IModulesRepositoryProperties;
 import org.apache.maven.artifact.repository.metadata.Metadata;
 
+import java.nio.file.Path;
 import java.util.List;
 import java.util.stream.Collectors;
 
@@ -37,7 +39,17 @@ public class ReposiliteRepositoryBrowser implements IRepositoryBrowser {
     }
 
     @Override
-    public DownloadedJar downloadJar(String artifactId, String version) throws UnexpectedBehaviourException {
-        return repositoryApiClient.getArtifactBinary(artifactId, version);
+    public DownloadedJar downloadJar(String artifactId, String version, Path targetFile) throws UnexpectedBehaviourException {
+        return repositoryApiClient.getArtifactBinary(artifactId, version, targetFile);
+    }
+
+    @Override
+    public RepositoryRequestStats getRequestStats() {
+        return repositoryApiClient.getRequestStats();
+    }
+
+    @Override
+    public void close() {
+        repositoryApiClient.close();
     }
 }
@@ -5,7 +5,11 @@ import com.jcabi.manifests.StreamsMfs;
 import com.paidora.framework.modules.Module;
 import com.paidora.framework.modules.exceptions.ModuleLoaderException;
 import com.paidora.framework.modules.jcl.InMemoryJarClassLoader;
+import com.paidora.framework.modules.jcl.InMemoryJarStorageMode;
+import com.paidora.framework.modules.jcl.InMemoryJarStorageOptions;
+import com.paidora.framework.modules.jcl.InMemoryJarStorageStats;
 import com.paidora.framework.modules.jcl.InMemoryPathMatchingResourcePatternResolver;
+import com.paidora.framework.modules.models.ModuleDescriptor;
 import lombok.AllArgsConstructor;
 import lombok.Builder;
 import lombok.Data;
@@ -16,14 +20,21 @@ import org.springframework.core.type.filter.AnnotationTypeFilter;
 import org.springframework.stereotype.Component;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.net.URLClassLoader;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 
 @Slf4j
 public abstract class ModulesFactorySrvBase {
+    public static final String MODULE_INDEX_ENTRY = "META-INF/paidora-module.idx";
+
     private final Map<String, ModuleLoaderContainer> loadedModules = new HashMap<>();
     private final String modulesRoot;
     private final ModulesStorageManagerBase storageManager;
@@ -34,63 +45,290 @@ public abstract class ModulesFactorySrvBase {
         this.storageManager = storageManager;
     }
 
+    /**
+     * Джарники читаются и сканируются параллельно, а регистрируются в порядке {@link ModulesStorageManagerBase#getAvailableJars()},
+     * так что при совпадении имен модулей, как и раньше, остается последний
+     */
     protected void loadModulesFromDir() {
         var files = storageManager.getAvailableJars();
-        for (var file : files) {
-            ModuleLoaderContainer module = null;
-            try {
-                module = loadModuleFromJar(file);
-            } catch (ModuleLoaderException e) {
-                log.warn("Can't load jar: " + file, e);
+        if (files.isEmpty()) {
+            return;
+        }
+        var threads = Math.min(files.size(), Runtime.getRuntime().availableProcessors());
+        var threadNumber = new AtomicInteger();
+        var executor = Executors.newFixedThreadPool(threads, r -> {
+            var thread = new Thread(r, "modules-loader-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        var futures = new ArrayList<Future<ModuleLoaderContainer>>(files.size());
+        // загруженные, но еще не зарегистрированные модули: если загрузка прервется, их класслоадеры нужно закрыть
+        var unregistered = Collections.newSetFromMap(new IdentityHashMap<ModuleLoaderContainer, Boolean>());
+        var abandoned = new AtomicBoolean();
+        try {
+            for (var file : files) {
+                futures.add(executor.submit(() -> {
+                    var module = loadModuleFromJar(file);
+                    synchronized (unregistered) {
+                        if (!abandoned.get()) {
+                            unregistered.add(module);
+                            return module;
+                        }
+                    }
+                    closeModuleClassLoader(module);
+                    return null;
+                }));
+            }
+            for (var i = 0; i < files.size(); i++) {
+                var file = files.get(i);
+                ModuleLoaderContainer module = null;
+                try {
+                    module = futures.get(i).get();
+                } catch (ExecutionException e) {
+                    log.warn("Can't load jar: " + file, e.getCause());
+                }
+                if (module != null) {
+                    log.info("Loaded module: " + module);
+                    registerLoadedModule(module);
+                    synchronized (unregistered) {
+                        unregistered.remove(module);
+                    }
+                }
             }
-            if (module != null) {
-                log.info("Loaded module: " + module);
-                loadedModules.put(module.getName(), module);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warn("Interrupted while loading modules from dir");
+            abandonLoading(futures, unregistered, abandoned);
+        } catch (RuntimeException | Error e) {
+            abandonLoading(futures, unregistered, abandoned);
+            throw e;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Отменяет оставшиеся загрузки и закрывает класслоадеры загруженных, но не зарегистрированных модулей.
+     * Загрузки, которые закончатся позже, закроют свои класслоадеры сами
+     */
+    private void abandonLoading(List<Future<ModuleLoaderContainer>> futures,
+                                Set<ModuleLoaderContainer> unregistered,
+                                AtomicBoolean abandoned) {
+        futures.forEach(future -> future.cancel(true));
+        List<ModuleLoaderContainer> modules;
+        synchronized (unregistered) {
+            abandoned.set(true);
+            modules = new ArrayList<>(unregistered);
+            unregistered.clear();
+        }
+        for (var module : modules) {
+            if (loadedModules.get(module.getName()) != module) {
+                closeModuleClassLoader(module);
             }
         }
     }
 
+    private void registerLoadedModule(ModuleLoaderContainer module) {
+        var replaced = loadedModules.put(module.getName(), module);
+        if (replaced != null) {
+            log.warn("Module " + module.getName() + " from jar " + replaced.getJarFile() + " is replaced by jar " + module.getJarFile());
+            closeModuleClassLoader(replaced);
+        }
+    }
+
+    /**
+     * Загружает модуль из джарника в директории модулей: если джарник не менялся, модуль берется из сохраненного
+     * описания без чтения манифеста и индекса, иначе описание сохраняется после загрузки
+     */
     private ModuleLoaderContainer loadModuleFromJar(File file) throws ModuleLoaderException {
+        InMemoryJarClassLoader classLoader = null;
         try {
-            var classLoader = new InMemoryJarClassLoader(file, this.getClass().getClassLoader());
-            var scanner = new ClassPathScanningCandidateComponentProvider(false);
-            scanner.addIncludeFilter(new AnnotationTypeFilter(Module.class));
-            scanner.setResourceLoader(new InMemoryPathMatchingResourcePatternResolver(classLoader));
-            var beans = scanner.findCandidateComponents(modulesRoot);
-            var bean = beans.stream().findFirst();
-            if (bean.isEmpty()) {
-                throw new ModuleLoaderException("No module found in jar: " + file);
+            classLoader = new InMemoryJarClassLoader(file, this.getClass().getClassLoader(), getJarStorageOptions());
+            var storedDescriptor = storageManager.getModuleDescriptor(file);
+            var module = storedDescriptor != null ? loadStoredModule(classLoader, file, storedDescriptor) : null;
+            if (module == null) {
+                module = loadModule(classLoader, file);
+                storageManager.storeModuleDescriptor(file, toDescriptor(module));
             }
-            var className = bean.get().getBeanClassName();
-            var moduleClass = classLoader.loadClass(className);
-            var moduleDefinition = moduleClass.getAnnotation(Module.class);
-            var isSpringComponent = moduleClass.isAnnotationPresent(Component.class);
-            var resource = classLoader.getResource("META-INF/MANIFEST.MF");
-            String version = null;
+            return module;
+        } catch (Throwable e) {
+            closeOnError(classLoader, e);
+            throw new ModuleLoaderException("loadModuleFromJar error", e);
+        }
+    }
 
+    /**
+     * Загружает модуль из скачанного файла без сохраненного описания
+     *
+     * @param targetFile куда джарник будет сохранен, если модуль пройдет проверку
+     */
+    private ModuleLoaderContainer loadDownloadedModule(File downloadedFile, File targetFile) throws ModuleLoaderException {
+        InMemoryJarClassLoader classLoader = null;
+        try {
+            classLoader = new InMemoryJarClassLoader(downloadedFile, this.getClass().getClassLoader(), getJarStorageOptions());
+            return loadModule(classLoader, targetFile);
+        } catch (Throwable e) {
+            closeOnError(classLoader, e);
+            throw new ModuleLoaderException("loadDownloadedModule error", e);
+        }
+    }
+
+    private static void closeOnError(InMemoryJarClassLoader classLoader, Throwable e) {
+        if (classLoader != null) {
             try {
-                var manifests = new Manifests();
-                manifests.append(new StreamsMfs(Objects.requireNonNull(resource).openStream()));
-                if (manifests.containsKey("Bundle-Build")) {
-                    version = manifests.get("Bundle-Build");
-                }
-            } catch (NullPointerException | IOException ignored) {
+                // освобождаем записи в общем хранилище
+                classLoader.close();
+            } catch (IOException ex) {
+                e.addSuppressed(ex);
             }
+        }
+    }
 
-            if (version == null) {
-                throw new ModuleLoaderException("Module version is unknown");
-            }
+    private static ModuleDescriptor toDescriptor(ModuleLoaderContainer module) {
+        return ModuleDescriptor.builder()
+                .name(module.getName())
+                .className(module.getModuleClass().getName())
+                .version(module.getVersion())
+                .springRegistrable(module.isSpringRegistrable())
+                .build();
+    }
+
+    private ModuleLoaderContainer loadStoredModule(InMemoryJarClassLoader classLoader, File file, ModuleDescriptor descriptor) {
+        try {
+            var moduleClass = classLoader.loadClass(descriptor.getClassName());
             return ModuleLoaderContainer.builder()
-                    .name(moduleDefinition.value())
+                    .name(descriptor.getName())
                     .moduleClass(moduleClass)
-                    .springRegistrable(isSpringComponent)
+                    .springRegistrable(descriptor.isSpringRegistrable())
                     .classLoader(classLoader)
-                    .version(version)
+                    .version(descriptor.getVersion())
                     .jarFile(file)
                     .build();
-        } catch (Throwable e) {
-            throw new ModuleLoaderException("loadModuleFromJar error", e);
+        } catch (ClassNotFoundException | LinkageError e) {
+            log.warn("Can't load stored module class " + descriptor.getClassName() + " from jar: " + file + ", revalidating it", e);
+            return null;
+        }
+    }
+
+    private ModuleLoaderContainer loadModule(InMemoryJarClassLoader classLoader, File file) throws ModuleLoaderException, ClassNotFoundException {
+        var resource = classLoader.getResource("META-INF/MANIFEST.MF");
+        String version = null;
+
+        try {
+            var manifests = new Manifests();
+            manifests.append(new StreamsMfs(Objects.requireNonNull(resource).openStream()));
+            if (manifests.containsKey("Bundle-Build")) {
+                version = manifests.get("Bundle-Build");
+            }
+        } catch (NullPointerException | IOException ignored) {
+        }
+
+        if (version == null) {
+            throw new ModuleLoaderException("Module version is unknown");
+        }
+
+        var moduleClass = findIndexedModuleClass(classLoader, file, version);
+        if (moduleClass == null) {
+            moduleClass = scanForModuleClass(classLoader, file);
+        }
+        var moduleDefinition = moduleClass.getAnnotation(Module.class);
+        var isSpringComponent = moduleClass.isAnnotationPresent(Component.class);
+        return ModuleLoaderContainer.builder()
+                .name(moduleDefinition.value())
+                .moduleClass(moduleClass)
+                .springRegistrable(isSpringComponent)
+                .classLoader(classLoader)
+                .version(version)
+                .jarFile(file)
+                .build();
+    }
+
+    /**
+     * Класс модуля из индекса, сгенерированного при сборке. Если индекса нет или он не соответствует джарнику,
+     * возвращается null и модуль ищется сканированием.
+     */
+    private Class<?> findIndexedModuleClass(InMemoryJarClassLoader classLoader, File file, String version) {
+        ModuleDescriptor descriptor;
+        try {
+            descriptor = readModuleDescriptor(classLoader);
+        } catch (IOException e) {
+            log.warn("Can't read module index from jar: " + file + ", scanning it", e);
+            return null;
+        }
+        if (descriptor == null) {
+            return null;
+        }
+        if (!version.equals(descriptor.getVersion())) {
+            log.warn("Module index version " + descriptor.getVersion() + " doesn't match jar version " + version + ": " + file + ", scanning it");
+            return null;
+        }
+        try {
+            var moduleClass = classLoader.loadClass(descriptor.getClassName());
+            var moduleDefinition = moduleClass.getAnnotation(Module.class);
+            if (moduleDefinition != null && moduleDefinition.value().equals(descriptor.getName())) {
+                return moduleClass;
+            }
+        } catch (ClassNotFoundException | LinkageError e) {
+            log.warn("Can't load indexed module class " + descriptor.getClassName() + " from jar: " + file, e);
+        }
+        log.warn("Module index doesn't match jar content: " + file + ", scanning it");
+        return null;
+    }
+
+    private Class<?> scanForModuleClass(InMemoryJarClassLoader classLoader, File file) throws ModuleLoaderException, ClassNotFoundException {
+        var scanner = new ClassPathScanningCandidateComponentProvider(false);
+        scanner.addIncludeFilter(new AnnotationTypeFilter(Module.class));
+        scanner.setResourceLoader(new InMemoryPathMatchingResourcePatternResolver(classLoader));
+        var beans = scanner.findCandidateComponents(modulesRoot);
+        var bean = beans.stream().findFirst();
+        if (bean.isEmpty()) {
+            throw new ModuleLoaderException("No module found in jar: " + file);
+        }
+        return classLoader.loadClass(bean.get().getBeanClassName());
+    }
+
+    /**
+     * @return описание модуля из индекса джарника или null, если индекса нет
+     */
+    public static ModuleDescriptor readModuleDescriptor(URLClassLoader classLoader) throws IOException {
+        var resource = classLoader.findResource(MODULE_INDEX_ENTRY);
+        if (resource == null) {
+            return null;
+        }
+        var index = new Properties();
+        try (var is = resource.openStream()) {
+            index.load(is);
+        }
+        var descriptor = ModuleDescriptor.builder()
+                .name(index.getProperty("module.name"))
+                .className(index.getProperty("module.class"))
+                .version(index.getProperty("bundle.build"))
+                .build();
+        if (descriptor.getName() == null || descriptor.getClassName() == null) {
+            throw new IOException("Module index is incomplete: " + descriptor);
+        }
+        return descriptor;
+    }
+
+    /**
+     * Настройки хранения джарников модулей в памяти, наследники могут переопределить, например, размер LRU кеша
+     */
+    protected InMemoryJarStorageOptions getJarStorageOptions() {
+        return InMemoryJarStorageOptions.builder()
+                .storageMode(InMemoryJarStorageMode.COMPRESSED)
+                .deduplicateEntries(true)
+                .offHeap(true)
+                .build();
+    }
+
+    public Map<String, InMemoryJarStorageStats> getModulesStorageStats() {
+        var result = new TreeMap<String, InMemoryJarStorageStats>();
+        for (var module : loadedModules.values()) {
+            if (module.getClassLoader() instanceof InMemoryJarClassLoader) {
+                result.put(module.getName(), ((InMemoryJarClassLoader) module.getClassLoader()).getStorageStats());
+            }
         }
+        return result;
     }
 
     public ModuleLoaderContainer getModule(String moduleAlias) {
@@ -101,54 +339,64 @@ public abstract class ModulesFactorySrvBase {
         return loadedModules.keySet();
     }
 
-    public boolean tryToUpdateModuleJar(String fileName, byte[] jarBlob, String expectedModuleName, String expectedVersion) {
-        File temporaryJarFile = null;
+    /**
+     * Временный файл для скачивания джарника, который потом передается в {@link #tryToUpdateModuleJar}
+     */
+    public Path createJarDownloadFile() throws IOException {
+        return storageManager.createDownloadFile();
+    }
+
+    /**
+     * Проверяет модуль из скачанного файла. Если имя и версия совпали с ожидаемыми, файл атомарно переносится
+     * в директорию модулей, а уже созданный класслоадер заменяет старый, который закрывается после замены.
+     */
+    public boolean tryToUpdateModuleJar(String fileName, File downloadedFile, String expectedModuleName, String expectedVersion) {
+        ModuleLoaderContainer downloadedModule;
         try {
-            temporaryJarFile = File.createTempFile(fileName + "-", ".jar");
-            temporaryJarFile.deleteOnExit();
-            try (var fos = new FileOutputStream(temporaryJarFile)) {
-                fos.write(jarBlob);
-            }
-            ModuleLoaderContainer downloadedModule;
-            try {
-                downloadedModule = loadModuleFromJar(temporaryJarFile);
-                downloadedModule.getClassLoader().close();
-            } catch (ModuleLoaderException e) {
-                log.warn("Can't load new jar: " + temporaryJarFile, e);
-                return false;
-            }
-            log.info("Loaded module from new jar: " + downloadedModule);
-
-            if (expectedModuleName.equals(downloadedModule.getName()) && expectedVersion.equals(downloadedModule.getVersion())) {
-                // Module name and version are as expected, proceed with replacing existing module
-                var existingModule = loadedModules.get(expectedModuleName);
-                File newJarFile;
-                if (existingModule != null) {
-                    existingModule.getClassLoader().close();
-                    log.info("Replaced module: " + existingModule.getName() + " with new version: " + downloadedModule.getVersion());
-                    newJarFile = storageManager.replaceExistingJar(fileName, downloadedModule.getJarFile(), existingModule.getJarFile());
-                } else {
-                    log.info("Added new module: " + downloadedModule.getName() + " with version: " + downloadedModule.getVersion());
-                    newJarFile = storageManager.addNewJar(fileName, downloadedModule.getJarFile());
-                }
-                var newModule = loadModuleFromJar(newJarFile);
-                loadedModules.put(newModule.getName(), newModule);
-                notifyAboutModuleUpdate(newModule.getName());
-            } else {
-                log.warn("The uploaded module's name " + downloadedModule.getName() + " and version " + downloadedModule.getVersion() + " do not match expected values");
-                return false;
-            }
+            downloadedModule = loadDownloadedModule(downloadedFile, storageManager.getJarFile(fileName));
+        } catch (ModuleLoaderException e) {
+            log.warn("Can't load new jar: " + fileName, e);
+            return false;
+        }
+        log.info("Loaded module from new jar: " + downloadedModule);
+
+        if (!expectedModuleName.equals(downloadedModule.getName()) || !expectedVersion.equals(downloadedModule.getVersion())) {
+            log.warn("The uploaded module's name " + downloadedModule.getName() + " and version " + downloadedModule.getVersion() + " do not match expected values");
+            closeModuleClassLoader(downloadedModule);
+            return false;
+        }
+
+        // Module name and version are as expected, proceed with replacing existing module
+        var existingModule = loadedModules.get(expectedModuleName);
+        try {
+            var newJarFile = storageManager.storeJar(fileName, downloadedFile, existingModule != null ? existingModule.getJarFile() : null);
+            downloadedModule.setJarFile(newJarFile);
+            storageManager.storeModuleDescriptor(newJarFile, toDescriptor(downloadedModule));
         } catch (Exception e) {
             log.warn("Module jar update error", e);
+            closeModuleClassLoader(downloadedModule);
             return false;
-        } finally {
-            if (temporaryJarFile != null && temporaryJarFile.exists()) {
-                temporaryJarFile.delete();
-            }
         }
+
+        loadedModules.put(downloadedModule.getName(), downloadedModule);
+        if (existingModule != null) {
+            log.info("Replaced module: " + existingModule.getName() + " with new version: " + downloadedModule.getVersion());
+            closeModuleClassLoader(existingModule);
+        } else {
+            log.info("Added new module: " + downloadedModule.getName() + " with version: " + downloadedModule.getVersion());
+        }
+        notifyAboutModuleUpdate(downloadedModule.getName());
         return true;
     }
 
+    private static void closeModuleClassLoader(ModuleLoaderContainer module) {
+        try {
+            module.getClassLoader().close();
+        } catch (IOException e) {
+            log.warn("Can't close class loader of module: " + module, e);
+        }
+    }
+
     private void notifyAboutModuleUpdate(String name) {
         for (var listener : moduleUpdateListeners) {
             try {
@@ -1,53 +1,197 @@
 package com.paidora.framework.modules.service;
 
 import com.paidora.framework.exceptions.UnexpectedBehaviourException;
+import com.paidora.framework.modules.models.ModuleDescriptor;
 import lombok.extern.slf4j.Slf4j;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
-import java.util.ArrayList;
-import java.util.List;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
 
+/**
+ * Джарники модулей лежат в modulesDir, рядом в {@link #DESCRIPTORS_DIR} хранятся описания загруженных из них модулей.
+ * Описание действительно, пока не изменился джарник: размер и время изменения сверяются всегда, а при их расхождении
+ * сверяется sha256 содержимого. Если содержимое то же (например, джарник скопировали заново), размер и время изменения
+ * в описании обновляются, чтобы при следующем запуске не считать хеш снова.
+ */
 @Slf4j
 public abstract class ModulesStorageManagerBase {
+    public static final String DESCRIPTORS_DIR = ".descriptors";
+
     private final String modulesDir;
 
     protected ModulesStorageManagerBase(String modulesDir) {
         this.modulesDir = modulesDir;
     }
 
+    /**
+     * @return джарники, отсортированные по имени, чтобы порядок загрузки не зависел от файловой системы
+     */
     public List<File> getAvailableJars() {
         var dir = new File(modulesDir);
         var files = dir.listFiles((d, name) -> name.endsWith(".jar"));
-        return files != null ? List.of(files) : new ArrayList<>();
+        if (files == null) {
+            return new ArrayList<>();
+        }
+        Arrays.sort(files, Comparator.comparing(File::getName));
+        return List.of(files);
+    }
+
+    public File getJarFile(String jarFileName) {
+        return Path.of(modulesDir, jarFileName).toFile();
     }
 
-    public File replaceExistingJar(String newJarFileName, File newJarFile, File oldJarFile) throws UnexpectedBehaviourException {
-        log.info("Replacing old jar: " + oldJarFile + " with new jar from file: " + newJarFile + " named " + newJarFileName);
-        File targetJar;
+    /**
+     * Временный файл для скачивания джарника, лежит в директории модулей, чтобы {@link #storeJar} был атомарным
+     * переименованием, и не заканчивается на .jar, чтобы не попасть в {@link #getAvailableJars()}
+     */
+    public Path createDownloadFile() throws IOException {
+        return Files.createTempFile(Files.createDirectories(Path.of(modulesDir)), ".download-", ".tmp");
+    }
+
+    /**
+     * Атомарно переименовывает скачанный в {@link #createDownloadFile()} файл в jarFileName,
+     * так что в директории никогда не бывает недописанного джарника. Старый джарник с другим именем удаляется.
+     *
+     * @param oldJarFile джарник заменяемой версии модуля или null
+     */
+    public File storeJar(String jarFileName, File downloadedFile, File oldJarFile) throws UnexpectedBehaviourException {
+        var targetJar = getJarFile(jarFileName);
+        log.info("Storing jar: " + targetJar + (oldJarFile != null ? " instead of old jar: " + oldJarFile : ""));
+        try {
+            Files.move(downloadedFile.toPath(), targetJar.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UnexpectedBehaviourException("Error ocurred while storing jar " + targetJar, e);
+        }
+        removeModuleDescriptor(targetJar);
+        if (oldJarFile != null && !oldJarFile.getAbsoluteFile().equals(targetJar.getAbsoluteFile())) {
+            removeModuleDescriptor(oldJarFile);
+            try {
+                Files.deleteIfExists(oldJarFile.toPath());
+            } catch (IOException e) {
+                log.warn("Can't delete old jar: " + oldJarFile, e);
+            }
+        }
+        return targetJar;
+    }
+
+    /**
+     * @return сохраненное описание модуля или null, если его нет или джарник изменился
+     */
+    public ModuleDescriptor getModuleDescriptor(File jarFile) {
+        var descriptorFile = getDescriptorFile(jarFile);
+        if (!Files.isRegularFile(descriptorFile)) {
+            return null;
+        }
+        try {
+            var record = new Properties();
+            try (var is = Files.newInputStream(descriptorFile)) {
+                record.load(is);
+            }
+            var jarHash = record.getProperty("jar.hash");
+            var size = Long.parseLong(record.getProperty("jar.size", "-1"));
+            var lastModified = Long.parseLong(record.getProperty("jar.lastModified", "-1"));
+            var refresh = false;
+            if (size != jarFile.length() || lastModified != jarFile.lastModified()) {
+                if (!hashJar(jarFile).equals(jarHash)) {
+                    log.info("Jar has changed since its descriptor was stored: " + jarFile);
+                    return null;
+                }
+                refresh = true;
+            }
+            var descriptor = ModuleDescriptor.builder()
+                    .name(record.getProperty("module.name"))
+                    .className(record.getProperty("module.class"))
+                    .version(record.getProperty("bundle.build"))
+                    .springRegistrable(Boolean.parseBoolean(record.getProperty("module.springRegistrable")))
+                    .jarHash(jarHash)
+                    .build();
+            if (descriptor.getName() == null || descriptor.getClassName() == null || descriptor.getVersion() == null) {
+                log.warn("Stored module descriptor is incomplete: " + descriptorFile);
+                return null;
+            }
+            if (refresh) {
+                log.info("Jar content is unchanged, refreshing size and modification time in its descriptor: " + jarFile);
+                writeModuleDescriptor(jarFile, descriptor, jarHash);
+            }
+            return descriptor;
+        } catch (IOException | RuntimeException e) {
+            log.warn("Can't read stored module descriptor: " + descriptorFile, e);
+            return null;
+        }
+    }
 
+    /**
+     * Сохраняет описание модуля для джарника из modulesDir, ошибки только логируются:
+     * без описания модуль просто будет заново проверен при следующем запуске
+     */
+    public void storeModuleDescriptor(File jarFile, ModuleDescriptor descriptor) {
         try {
-            Files.delete(oldJarFile.toPath());
+            writeModuleDescriptor(jarFile, descriptor, hashJar(jarFile));
         } catch (IOException e) {
-            throw new UnexpectedBehaviourException("Can't delete old jar: " + oldJarFile, e);
+            log.warn("Can't hash jar to store its module descriptor: " + jarFile, e);
         }
+    }
+
+    private void writeModuleDescriptor(File jarFile, ModuleDescriptor descriptor, String jarHash) {
+        var descriptorFile = getDescriptorFile(jarFile);
         try {
-            targetJar = Files.copy(newJarFile.toPath(), Path.of(modulesDir, newJarFileName), StandardCopyOption.REPLACE_EXISTING).toFile();
-            return targetJar;
-        } catch (Exception e) {
-            throw new UnexpectedBehaviourException("Error ocurred while replacing new jar", e);
+            var record = new Properties();
+            record.setProperty("jar.hash", jarHash);
+            record.setProperty("jar.size", String.valueOf(jarFile.length()));
+            record.setProperty("jar.lastModified", String.valueOf(jarFile.lastModified()));
+            record.setProperty("module.name", descriptor.getName());
+            record.setProperty("module.class", descriptor.getClassName());
+            record.setProperty("bundle.build", descriptor.getVersion());
+            record.setProperty("module.springRegistrable", String.valueOf(descriptor.isSpringRegistrable()));
+
+            Files.createDirectories(descriptorFile.getParent());
+            var tempFile = Files.createTempFile(descriptorFile.getParent(), jarFile.getName() + "-", ".tmp");
+            try {
+                try (var os = Files.newOutputStream(tempFile)) {
+                    record.store(os, null);
+                }
+                Files.move(tempFile, descriptorFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(tempFile);
+            }
+        } catch (IOException | RuntimeException e) {
+            log.warn("Can't store module descriptor: " + descriptorFile, e);
         }
     }
 
-    public File addNewJar(String newJarFileName, File newJarFile) throws UnexpectedBehaviourException {
-        log.info("Creating new jar from file: " + newJarFile + " named " + newJarFileName);
+    public void removeModuleDescriptor(File jarFile) {
         try {
-            return Files.copy(newJarFile.toPath(), Path.of(modulesDir, newJarFileName), StandardCopyOption.REPLACE_EXISTING).toFile();
+            Files.deleteIfExists(getDescriptorFile(jarFile));
         } catch (IOException e) {
-            throw new UnexpectedBehaviourException("Error ocurred while creating new jar", e);
+            log.warn("Can't remove module descriptor of jar: " + jarFile, e);
+        }
+    }
+
+    private Path getDescriptorFile(File jarFile) {
+        return Path.of(modulesDir, DESCRIPTORS_DIR, jarFile.getName() + ".properties");
+    }
+
+    private static String hashJar(File jarFile) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        try (InputStream is = Files.newInputStream(jarFile.toPath())) {
+            var buffer = new byte[8192];
+            int len;
+            while ((len = is.read(buffer)) > 0) {
+                digest.update(buffer, 0, len);
+            }
         }
+        return HexFormat.of().formatHex(digest.digest());
     }
 }
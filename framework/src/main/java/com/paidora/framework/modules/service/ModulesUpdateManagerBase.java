@@ -5,6 +5,7 @@ import com.paidora.framework.modules.models.ModuleUpdateInfo;
 import com.paidora.framework.modules.models.ModuleUpdatesInfo;
 import com.paidora.framework.modules.repository.DownloadedJar;
 import com.paidora.framework.modules.repository.IRepositoryBrowser;
+import com.paidora.framework.modules.repository.RepositoryRequestStats;
 import com.paidora.framework.modules.repository.nexus.NexusRepositoryBrowser;
 import com.paidora.framework.modules.repository.reposilite.ReposiliteRepositoryBrowser;
 import com.paidora.framework.modules.service.properties.IModulesRepositoryProperties;
@@ -12,15 +13,44 @@ import lombok.Synchronized;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.maven.artifact.repository.metadata.Metadata;
 
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
+/**
+ * defaults:
+ * metadataFetchThreads:    8 - сколько maven-metadata.xml скачивается одновременно
+ * metadataRefreshTimeout:  30 секунд на обновление метаданных всех модулей
+ * <p>
+ * Держит потоки загрузки метаданных и HTTP клиенты репозитория, их освобождает {@link #close()}.
+ * Spring вызывает его сам при остановке контекста, созданный вручную менеджер нужно закрыть
+ */
 @Slf4j
-public class ModulesUpdateManagerBase {
+public class ModulesUpdateManagerBase implements Closeable {
+    public static final int DEFAULT_METADATA_FETCH_THREADS = 8;
+    public static final long DEFAULT_METADATA_REFRESH_TIMEOUT_MILLIS = 30_000;
+
     private final String jarPrefix;
     private final ModulesFactorySrvBase factorySrv;
-    private Map<String, Metadata> modulesInRepository = new HashMap<>();
+    private volatile Map<String, Metadata> modulesInRepository = Map.of();
     private IRepositoryBrowser repositoryBrowser;
+    /**
+     * Создается при первом обновлении метаданных, а не в конструкторе, так как размер берется из переопределяемого
+     * {@link #getMetadataFetchThreads()}, а поля наследника в конструкторе базового класса еще не заполнены
+     */
+    private ThreadPoolExecutor metadataExecutor;
+    private volatile boolean closed;
 
     public ModulesUpdateManagerBase(String jarPrefix,
                                     IModulesRepositoryProperties repositoryProperties,
@@ -41,9 +71,36 @@ public class ModulesUpdateManagerBase {
         }
     }
 
+    private synchronized ThreadPoolExecutor getMetadataExecutor() {
+        if (closed) {
+            throw new RejectedExecutionException("Modules update manager is closed");
+        }
+        if (metadataExecutor == null) {
+            var threads = getMetadataFetchThreads();
+            var threadNumber = new AtomicInteger();
+            metadataExecutor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+                var thread = new Thread(r, "modules-metadata-" + threadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+            // между обновлениями потоки не держим
+            metadataExecutor.allowCoreThreadTimeOut(true);
+        }
+        return metadataExecutor;
+    }
+
+    protected int getMetadataFetchThreads() {
+        return DEFAULT_METADATA_FETCH_THREADS;
+    }
+
+    protected long getMetadataRefreshTimeoutMillis() {
+        return DEFAULT_METADATA_REFRESH_TIMEOUT_MILLIS;
+    }
+
     public ModuleUpdatesInfo getModuleUpdatesInfo() {
         log.debug("Checking for modules updates...");
         var moduleNamesLocal = this.factorySrv.getLoadedModuleNames();
+        var modulesInRepository = this.modulesInRepository;
         var moduleNamesRepo = modulesInRepository.keySet();
         var allModuleNames = new HashSet<String>();
         allModuleNames.addAll(moduleNamesLocal);
@@ -51,7 +108,7 @@ public class ModulesUpdateManagerBase {
         var modulesInfo = new ArrayList<ModuleUpdateInfo>();
         for (var moduleName : allModuleNames) {
             var localModule = this.factorySrv.getModule(moduleName);
-            var repoModule = this.modulesInRepository.get(moduleName);
+            var repoModule = modulesInRepository.get(moduleName);
             modulesInfo.add(ModuleUpdateInfo.builder()
                     .moduleName(moduleName)
                     .localVersion(localModule != null ? localModule.getVersion() : null)
@@ -68,7 +125,12 @@ public class ModulesUpdateManagerBase {
         if (repositoryBrowser == null) {
             return false;
         }
+        if (closed) {
+            log.warn("Modules update manager is closed, skipping repository update");
+            return false;
+        }
         log.debug("Loading modules from repository...");
+        var modulesInRepositoryOld = this.modulesInRepository;
         var modulesInRepositoryNew = new HashMap<String, Metadata>();
         List<String> modules;
         try {
@@ -78,29 +140,55 @@ public class ModulesUpdateManagerBase {
             return false;
         }
         if (modules != null) {
-            for (var artifactName : modules) {
-                if (!artifactName.startsWith(jarPrefix)) {
-                    continue;
+            var futures = new LinkedHashMap<String, Future<Metadata>>();
+            try {
+                var metadataExecutor = getMetadataExecutor();
+                for (var artifactName : modules) {
+                    if (artifactName.startsWith(jarPrefix)) {
+                        futures.put(artifactName, metadataExecutor.submit(() -> repositoryBrowser.getArtifactMetadata(artifactName)));
+                    }
                 }
+            } catch (RejectedExecutionException e) {
+                // менеджер закрыли во время обновления
+                log.warn("Modules update manager is closed, skipping repository update");
+                futures.values().forEach(f -> f.cancel(true));
+                return false;
+            }
+            var deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(getMetadataRefreshTimeoutMillis());
+            for (var future : futures.entrySet()) {
+                var artifactName = future.getKey();
+                var moduleName = artifactName.substring(jarPrefix.length());
                 Metadata artifactMetadata;
                 try {
-                    artifactMetadata = repositoryBrowser.getArtifactMetadata(artifactName);
-                } catch (UnexpectedBehaviourException e) {
-                    log.warn("Can't load artifact metadata for: " + artifactName, e);
-                    continue;
+                    artifactMetadata = future.getValue().get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                } catch (ExecutionException e) {
+                    log.warn("Can't load artifact metadata for: " + artifactName, e.getCause());
+                    artifactMetadata = modulesInRepositoryOld.get(moduleName);
+                } catch (TimeoutException e) {
+                    log.warn("Artifact metadata loading timed out for: " + artifactName);
+                    future.getValue().cancel(true);
+                    artifactMetadata = modulesInRepositoryOld.get(moduleName);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    futures.values().forEach(f -> f.cancel(true));
+                    return false;
+                }
+                if (artifactMetadata != null) {
+                    modulesInRepositoryNew.put(moduleName, artifactMetadata);
                 }
-                log.debug("Loaded module metadata: " + modulesInRepositoryNew.size());
-                var moduleName = artifactName.substring(jarPrefix.length());
-                modulesInRepositoryNew.put(moduleName, artifactMetadata);
             }
         }
-        this.modulesInRepository = modulesInRepositoryNew;
+        this.modulesInRepository = Collections.unmodifiableMap(modulesInRepositoryNew);
         log.debug("Loaded repository modules: " + modulesInRepositoryNew.size());
         return true;
     }
 
     @Synchronized
     public boolean updateModule(String moduleName, String versionToUpdate) {
+        if (closed) {
+            log.warn("Modules update manager is closed, can't update module " + moduleName);
+            return false;
+        }
         log.info("Updating module " + moduleName + " to version " + versionToUpdate);
         var repoModule = modulesInRepository.get(moduleName);
         var versionAvailable = repoModule.getVersioning().getVersions().contains(versionToUpdate);
@@ -108,17 +196,56 @@ public class ModulesUpdateManagerBase {
             log.info("Version " + versionToUpdate + " not available for module " + moduleName);
             return false;
         }
-        DownloadedJar jarBlob;
+        Path downloadFile;
         try {
-            jarBlob = repositoryBrowser.downloadJar(repoModule.getArtifactId(), versionToUpdate);
-        } catch (UnexpectedBehaviourException e) {
-            log.info("Can't get jar from repository for module " + moduleName + " to version " + versionToUpdate, e);
+            downloadFile = factorySrv.createJarDownloadFile();
+        } catch (IOException e) {
+            log.warn("Can't create file to download jar for module " + moduleName, e);
             return false;
         }
-        return factorySrv.tryToUpdateModuleJar(jarBlob.getFileName(), jarBlob.getJarBytes(), moduleName, versionToUpdate);
+        try {
+            DownloadedJar downloadedJar;
+            try {
+                downloadedJar = repositoryBrowser.downloadJar(repoModule.getArtifactId(), versionToUpdate, downloadFile);
+            } catch (UnexpectedBehaviourException e) {
+                log.info("Can't get jar from repository for module " + moduleName + " to version " + versionToUpdate, e);
+                return false;
+            }
+            return factorySrv.tryToUpdateModuleJar(downloadedJar.getFileName(), downloadedJar.getJarFile(), moduleName, versionToUpdate);
+        } finally {
+            try {
+                // после успешного обновления файл уже перенесен в директорию модулей
+                Files.deleteIfExists(downloadFile);
+            } catch (IOException e) {
+                log.warn("Can't delete downloaded jar: " + downloadFile, e);
+            }
+        }
+    }
+
+    /**
+     * @return счетчики полных ответов и 304 от репозитория или null, если репозиторий не настроен
+     */
+    public RepositoryRequestStats getRepositoryRequestStats() {
+        return repositoryBrowser != null ? repositoryBrowser.getRequestStats() : null;
     }
 
     public boolean forceModulesRepoUpdate() {
         return loadModulesFromRepository();
     }
+
+    /**
+     * После закрытия обновление из репозитория и обновление модулей только пишут предупреждение в лог
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            if (metadataExecutor != null) {
+                metadataExecutor.shutdownNow();
+            }
+        }
+        if (repositoryBrowser != null) {
+            repositoryBrowser.close();
+        }
+    }
 }
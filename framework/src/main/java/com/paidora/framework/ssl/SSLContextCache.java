@@ -0,0 +1,106 @@
+package com.paidora.framework.ssl;
+
+import javax.net.ssl.SSLContext;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Ограниченный по размеру кеш SSL контекстов, вытесняются давно не использованные.
+ * Ключ - sha256 от сертификата, ключа и пароля, так что одинаковые параметры дают тот же контекст
+ * и TLS сессии переиспользуются, а сами сертификаты в кеше не хранятся.
+ * Контекст по такому ключу не устаревает, поэтому срока жизни у него нет: кешированные HTTP клиенты держат свой
+ * контекст, пока живет их пул, и вытеснение из этого кеша их не затрагивает.
+ */
+public class SSLContextCache {
+    public static final int DEFAULT_MAX_SIZE = 256;
+
+    private final int maxSize;
+    private final Map<String, SSLContext> contexts;
+
+    public SSLContextCache() {
+        this(DEFAULT_MAX_SIZE);
+    }
+
+    public SSLContextCache(int maxSize) {
+        this.maxSize = maxSize;
+        this.contexts = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, SSLContext> eldest) {
+                return size() > SSLContextCache.this.maxSize;
+            }
+        };
+    }
+
+    public static String getCertificateFingerprint(String key, String cert) {
+        return fingerprint("pem", key, cert);
+    }
+
+    public static String getBase64CertificateFingerprint(String password, String base64cert) {
+        return fingerprint("pkcs12", password, base64cert);
+    }
+
+    public SSLContext getForCertificate(String key, String cert) throws Exception {
+        return get(getCertificateFingerprint(key, cert), () -> SSLUtil.getSSLContextForCertificate(key, cert));
+    }
+
+    public SSLContext getForBase64Certificate(String password, String base64cert) throws Exception {
+        return get(getBase64CertificateFingerprint(password, base64cert), () -> SSLUtil.getSSLContextForBase64Certificate(password, base64cert));
+    }
+
+    /**
+     * Контекст строится вне блокировки, при одновременном промахе по одному ключу он может быть построен дважды
+     */
+    public SSLContext get(String fingerprint, ISSLContextFactory factory) throws Exception {
+        synchronized (contexts) {
+            var cached = contexts.get(fingerprint);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        var sslContext = factory.create();
+        synchronized (contexts) {
+            contexts.put(fingerprint, sslContext);
+        }
+        return sslContext;
+    }
+
+    public int size() {
+        synchronized (contexts) {
+            return contexts.size();
+        }
+    }
+
+    public void clear() {
+        synchronized (contexts) {
+            contexts.clear();
+        }
+    }
+
+    private static String fingerprint(String type, String... parts) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        digest.update(type.getBytes(StandardCharsets.UTF_8));
+        for (var part : parts) {
+            // длина перед каждой частью, чтобы разные разбиения одной строки не совпадали
+            var bytes = part != null ? part.getBytes(StandardCharsets.UTF_8) : new byte[0];
+            digest.update((byte) (part != null ? 1 : 0));
+            digest.update(String.valueOf(bytes.length).getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) ':');
+            digest.update(bytes);
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    @FunctionalInterface
+    public interface ISSLContextFactory {
+        SSLContext create() throws Exception;
+    }
+}
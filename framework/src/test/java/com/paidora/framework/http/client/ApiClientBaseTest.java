@@ -0,0 +1,55 @@
+package com.paidora.framework.http.client;
+
+import com.paidora.framework.exceptions.UnexpectedBehaviourException;
+import com.paidora.framework.http.client.metrics.InMemoryApiClientMetrics;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ApiClientBaseTest {
+
+    @Test
+    void closeUnregistersPoolsAndRejectsNewClients() throws Exception {
+        var metrics = new InMemoryApiClientMetrics();
+        var client = new TestApiClient(metrics);
+        assertNotNull(client.getPooledHttpClient(10L, null, null, false));
+        assertNotNull(client.getPooledHttpAsyncClient(10L, null, null, false));
+        assertEquals(2, metrics.getStats().getPools().size());
+
+        // регистрации снимаются из тех метрик, в которых были сделаны
+        client.setMetrics(new InMemoryApiClientMetrics());
+        client.close();
+        assertTrue(metrics.getStats().getPools().isEmpty());
+        assertThrows(UnexpectedBehaviourException.class, () -> client.getPooledHttpClient(10L, null, null, false));
+    }
+
+    @Test
+    void unreachableClientIsClosedByCleaner() throws Exception {
+        var metrics = new InMemoryApiClientMetrics();
+        // пул держим сами, поэтому регистрация пропадет только после закрытия клиента, а не после сборки пула
+        var httpClient = createUnclosedClient(metrics);
+        assertEquals(1, metrics.getStats().getPools().size());
+
+        var deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!metrics.getStats().getPools().isEmpty() && System.nanoTime() < deadline) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertTrue(metrics.getStats().getPools().isEmpty());
+        assertNotNull(httpClient);
+    }
+
+    private static CloseableHttpClient createUnclosedClient(InMemoryApiClientMetrics metrics) throws UnexpectedBehaviourException {
+        return new TestApiClient(metrics).getPooledHttpClient(10L, null, null, false);
+    }
+
+    private static class TestApiClient extends ApiClientBase {
+        TestApiClient(InMemoryApiClientMetrics metrics) {
+            super("http://127.0.0.1", 10L);
+            setMetrics(metrics);
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package com.paidora.framework.http.client.cache;
+
+import com.paidora.framework.http.client.core.ApiClientBodyType;
+import com.paidora.framework.http.client.core.ApiClientHttpRequest;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ApiRequestCoalescerTest {
+
+    @Test
+    void followersGetLeaderResponseUntilItCompletes() throws Exception {
+        var coalescer = new ApiRequestCoalescer();
+        var leader = coalescer.join(request("http://127.0.0.1/status"), true);
+        var follower = coalescer.join(request("http://127.0.0.1/status"), true);
+        var other = coalescer.join(request("http://127.0.0.1/other"), true);
+        assertTrue(leader.isLeader());
+        assertFalse(follower.isLeader());
+        assertTrue(other.isLeader());
+
+        var response = follower.getResponse();
+        // отмена одного ждущего не отменяет общий запрос
+        follower.getResponse().cancel(false);
+        leader.complete("ok", null);
+        assertEquals("ok", response.get());
+
+        assertTrue(coalescer.join(request("http://127.0.0.1/status"), true).isLeader());
+        assertNull(coalescer.join(request("http://127.0.0.1/status"), false));
+    }
+
+    private static ApiClientHttpRequest<Void, String> request(String url) {
+        return ApiClientHttpRequest.get(url, ApiClientBodyType.TEXT, String.class);
+    }
+}
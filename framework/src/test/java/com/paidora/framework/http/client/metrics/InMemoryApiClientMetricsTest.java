@@ -0,0 +1,38 @@
+package com.paidora.framework.http.client.metrics;
+
+import org.apache.hc.core5.pool.PoolStats;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InMemoryApiClientMetricsTest {
+
+    @Test
+    void collapsesHostAndRouteOfOverflowedSeries() {
+        var metrics = new InMemoryApiClientMetrics();
+        for (var i = 0; i < InMemoryApiClientMetrics.MAX_SERIES + 500; i++) {
+            metrics.recordError("host" + i + ".example.com", "/orders", "http:503");
+        }
+        var errors = metrics.getStats().getErrors();
+        assertEquals(InMemoryApiClientMetrics.MAX_SERIES + 1, errors.size());
+        var overflow = errors.get(0);
+        assertEquals(InMemoryApiClientMetrics.OTHER_ROUTE, overflow.getHost());
+        assertEquals(InMemoryApiClientMetrics.OTHER_ROUTE, overflow.getRoute());
+        assertEquals(500, overflow.getCount());
+    }
+
+    @Test
+    void dropsPoolWhenStatsAreGone() {
+        var metrics = new InMemoryApiClientMetrics();
+        var pool = new AtomicReference<>(new PoolStats(1, 0, 2, 10));
+        metrics.registerPool("client", pool::get);
+        assertEquals(1, metrics.getStats().getPools().get("client").getLeased());
+
+        pool.set(null);
+        assertTrue(metrics.getStats().getPools().isEmpty());
+        pool.set(new PoolStats(1, 0, 2, 10));
+        assertTrue(metrics.getStats().getPools().isEmpty());
+    }
+}
@@ -0,0 +1,88 @@
+package com.paidora.framework.modules.jcl;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Сотни потоков одновременно загружают одни и те же классы из одного джарника в разном порядке.
+ * Классы собраны в цепочки наследования, так что определение класса рекурсивно загружает родителей
+ * и потоки сталкиваются на одних и тех же именах.
+ */
+class InMemoryJarClassLoaderConcurrencyTest {
+    private static final int THREADS = 256;
+    private static final int CLASSES = 2000;
+    private static final int PACKAGES = 20;
+    private static final int CHAIN_LENGTH = 10;
+
+    @ParameterizedTest
+    @EnumSource(InMemoryJarStorageMode.class)
+    void loadsEachClassOnceUnderContention(InMemoryJarStorageMode storageMode) throws Exception {
+        var classNames = new ArrayList<String>();
+        var entries = new LinkedHashMap<String, byte[]>();
+        for (var i = 0; i < CLASSES; i++) {
+            var name = internalName(i);
+            var superName = i % CHAIN_LENGTH == 0 ? "java/lang/Object" : internalName(i - 1);
+            entries.put(name + ".class", TestJars.emptyClass(name, superName));
+            classNames.add(name.replace('/', '.'));
+        }
+        var options = InMemoryJarStorageOptions.builder()
+                .storageMode(storageMode)
+                .inflatedCacheSize(16 * 1024)
+                .build();
+
+        try (var classLoader = new InMemoryJarClassLoader(TestJars.createJar(entries), getClass().getClassLoader(), options)) {
+            var loaded = new ConcurrentHashMap<String, Class<?>>();
+            var errors = new ConcurrentLinkedQueue<Throwable>();
+            var start = new CountDownLatch(1);
+            var done = new CountDownLatch(THREADS);
+            for (var t = 0; t < THREADS; t++) {
+                var order = new ArrayList<>(classNames);
+                Collections.shuffle(order, new Random(t));
+                var thread = new Thread(() -> {
+                    try {
+                        start.await();
+                        for (var name : order) {
+                            var loadedClass = classLoader.loadClass(name);
+                            var previous = loaded.putIfAbsent(name, loadedClass);
+                            if (previous != null && previous != loadedClass) {
+                                errors.add(new AssertionError("Class " + name + " is defined twice"));
+                            }
+                        }
+                    } catch (Throwable e) {
+                        errors.add(e);
+                    } finally {
+                        done.countDown();
+                    }
+                }, "class-loading-" + t);
+                thread.start();
+            }
+            start.countDown();
+            assertTrue(done.await(2, TimeUnit.MINUTES), "Class loading threads did not finish");
+
+            assertEquals(List.of(), new ArrayList<>(errors));
+            assertEquals(CLASSES, loaded.size());
+            for (var i = 0; i < CLASSES; i++) {
+                var loadedClass = loaded.get(classNames.get(i));
+                assertSame(classLoader, loadedClass.getClassLoader());
+                var expectedSuper = i % CHAIN_LENGTH == 0 ? Object.class : loaded.get(classNames.get(i - 1));
+                assertSame(expectedSuper, loadedClass.getSuperclass());
+            }
+        }
+    }
+
+    private static String internalName(int i) {
+        return "stress/p" + (i / CHAIN_LENGTH % PACKAGES) + "/C" + i;
+    }
+}
@@ -0,0 +1,71 @@
+package com.paidora.framework.modules.jcl;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Map;
+import java.util.zip.ZipException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InMemoryJarClassLoaderTest {
+
+    @Test
+    void resourceLookupDoesNotInflateEntry() throws Exception {
+        var jar = TestJars.createJar(Map.of("config/app.properties", "key=value\n".getBytes(StandardCharsets.UTF_8)));
+        var options = InMemoryJarStorageOptions.of(InMemoryJarStorageMode.COMPRESSED);
+
+        try (var classLoader = new InMemoryJarClassLoader(jar, getClass().getClassLoader(), options)) {
+            var url = classLoader.getResource("config/app.properties");
+            assertNotNull(url);
+            assertEquals("x-mem-cache", url.getProtocol());
+            assertEquals(1, Collections.list(classLoader.findResources("config/app.properties")).size());
+            assertNull(classLoader.findResource("config/missing.properties"));
+            assertEquals(0, classLoader.getStorageStats().getInflatedBytes());
+
+            try (var is = classLoader.getResourceAsStream("config/app.properties")) {
+                assertNotNull(is);
+                assertEquals("key=value\n", new String(is.readAllBytes(), StandardCharsets.UTF_8));
+            }
+            assertEquals(10, classLoader.getStorageStats().getInflatedBytes());
+        }
+    }
+
+    @Test
+    void streamedEntryIsCheckedByCrc() throws Exception {
+        var content = "key=value\n".repeat(100).getBytes(StandardCharsets.UTF_8);
+        var jar = TestJars.createJar(Map.of("config/big.properties", content));
+        // запись больше кеша распакованных, поэтому читается потоком прямо из сжатых данных
+        var options = InMemoryJarStorageOptions.builder()
+                .storageMode(InMemoryJarStorageMode.COMPRESSED)
+                .inflatedCacheSize(16)
+                .build();
+
+        try (var classLoader = new InMemoryJarClassLoader(jar, getClass().getClassLoader(), options);
+             var is = classLoader.getResourceAsStream("config/big.properties")) {
+            assertNotNull(is);
+            assertArrayEquals(content, is.readAllBytes());
+        }
+
+        corruptCentralDirectoryCrc(jar);
+        try (var classLoader = new InMemoryJarClassLoader(jar, getClass().getClassLoader(), options);
+             var is = classLoader.getResourceAsStream("config/big.properties")) {
+            assertNotNull(is);
+            assertThrows(ZipException.class, is::readAllBytes);
+        }
+    }
+
+    private static void corruptCentralDirectoryCrc(byte[] jar) {
+        var buffer = ByteBuffer.wrap(jar).order(ByteOrder.LITTLE_ENDIAN);
+        for (var pos = 0; pos + 20 <= jar.length; pos++) {
+            if (buffer.getInt(pos) == 0x02014b50) {
+                buffer.putInt(pos + 16, ~buffer.getInt(pos + 16));
+                return;
+            }
+        }
+        fail("No central directory header");
+    }
+}
@@ -0,0 +1,50 @@
+package com.paidora.framework.modules.jcl;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.zip.Deflater;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SharedEntryStoreTest {
+
+    /**
+     * Одно и то же содержимое, сжатое с разным уровнем, дает разные сжатые байты, но хранится один раз
+     */
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    void sharesEntriesWithSameContentAndDifferentCompression(boolean offHeap) throws Exception {
+        var content = new StringBuilder();
+        for (var i = 0; i < 2000; i++) {
+            content.append("line ").append(i % 37).append(' ').append(offHeap).append('\n');
+        }
+        var entries = Map.of("config/shared.txt", content.toString().getBytes(StandardCharsets.UTF_8));
+        var fastJar = TestJars.createJar(entries, Deflater.BEST_SPEED);
+        var smallJar = TestJars.createJar(entries, Deflater.BEST_COMPRESSION);
+        var options = InMemoryJarStorageOptions.builder()
+                .storageMode(InMemoryJarStorageMode.LAZY)
+                .deduplicateEntries(true)
+                .offHeap(offHeap)
+                .build();
+
+        var store = SharedEntryStore.getInstance();
+        var before = store.getStats();
+        try (var first = new InMemoryJarClassLoader(fastJar, getClass().getClassLoader(), options);
+             var second = new InMemoryJarClassLoader(smallJar, getClass().getClassLoader(), options)) {
+            var stats = store.getStats();
+            assertEquals(before.getUniqueEntries() + 1, stats.getUniqueEntries());
+            assertEquals(before.getReferences() + 2, stats.getReferences());
+            for (var classLoader : new InMemoryJarClassLoader[]{first, second}) {
+                try (var is = classLoader.getResourceAsStream("config/shared.txt")) {
+                    assertEquals(content.toString(), new String(is.readAllBytes(), StandardCharsets.UTF_8));
+                }
+            }
+        }
+        var after = store.getStats();
+        assertEquals(before.getUniqueEntries(), after.getUniqueEntries());
+        assertEquals(before.getUniqueBytes(), after.getUniqueBytes());
+    }
+}
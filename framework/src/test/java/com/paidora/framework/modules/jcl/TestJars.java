@@ -0,0 +1,72 @@
+package com.paidora.framework.modules.jcl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.zip.Deflater;
+
+/**
+ * Джарники для тестов класслоадера, собираемые в памяти
+ */
+final class TestJars {
+    private TestJars() {
+    }
+
+    /**
+     * @param entries имя записи -> содержимое
+     */
+    static byte[] createJar(Map<String, byte[]> entries) throws IOException {
+        return createJar(entries, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * @param level уровень сжатия записей {@link Deflater}
+     */
+    static byte[] createJar(Map<String, byte[]> entries, int level) throws IOException {
+        var out = new ByteArrayOutputStream();
+        try (var jar = new JarOutputStream(out)) {
+            jar.setLevel(level);
+            for (var entry : entries.entrySet()) {
+                jar.putNextEntry(new JarEntry(entry.getKey()));
+                jar.write(entry.getValue());
+                jar.closeEntry();
+            }
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Минимальный class файл: public класс без полей, методов и атрибутов
+     *
+     * @param internalName имя класса вида com/x/Y
+     * @param superName    имя родительского класса вида com/x/Y
+     */
+    static byte[] emptyClass(String internalName, String superName) throws IOException {
+        var out = new ByteArrayOutputStream();
+        var data = new DataOutputStream(out);
+        data.writeInt(0xCAFEBABE);
+        data.writeShort(0);
+        data.writeShort(61);
+        data.writeShort(5);
+        data.writeByte(1);
+        data.writeUTF(internalName);
+        data.writeByte(7);
+        data.writeShort(1);
+        data.writeByte(1);
+        data.writeUTF(superName);
+        data.writeByte(7);
+        data.writeShort(3);
+        data.writeShort(0x0021);
+        data.writeShort(2);
+        data.writeShort(4);
+        data.writeShort(0);
+        data.writeShort(0);
+        data.writeShort(0);
+        data.writeShort(0);
+        data.flush();
+        return out.toByteArray();
+    }
+}
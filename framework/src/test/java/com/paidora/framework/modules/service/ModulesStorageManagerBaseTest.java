@@ -0,0 +1,42 @@
+package com.paidora.framework.modules.service;
+
+import com.paidora.framework.modules.models.ModuleDescriptor;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ModulesStorageManagerBaseTest {
+
+    @TempDir
+    Path modulesDir;
+
+    @Test
+    void refreshesDescriptorWhenOnlyModificationTimeChanged() throws Exception {
+        var storageManager = new ModulesStorageManagerBase(modulesDir.toString()) {
+        };
+        var jarFile = Files.write(modulesDir.resolve("plugin.jar"), new byte[]{1, 2, 3}).toFile();
+        storageManager.storeModuleDescriptor(jarFile, ModuleDescriptor.builder()
+                .name("plugin")
+                .className("com.example.Plugin")
+                .version("1.0.1")
+                .build());
+
+        var lastModified = jarFile.lastModified() + 60_000;
+        assertTrue(jarFile.setLastModified(lastModified));
+        assertEquals("plugin", storageManager.getModuleDescriptor(jarFile).getName());
+
+        var record = new Properties();
+        try (var is = Files.newInputStream(modulesDir.resolve(ModulesStorageManagerBase.DESCRIPTORS_DIR).resolve("plugin.jar.properties"))) {
+            record.load(is);
+        }
+        assertEquals(String.valueOf(jarFile.lastModified()), record.getProperty("jar.lastModified"));
+
+        Files.write(jarFile.toPath(), new byte[]{1, 2, 4});
+        assertNull(storageManager.getModuleDescriptor(jarFile));
+    }
+}